@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+import pt.up.fe.specs.antbuilder.utilities.EclipseProjects;
+import pt.up.fe.specs.antbuilder.utilities.FileCache;
+import pt.up.fe.specs.antbuilder.utilities.UserLibraries;
+
+/**
+ * Measures resolving the classpath of a project without dependencies (shallow) and of the last project of a
+ * dependency chain (deep). Each parser is only used once, so nothing is reused between operations.
+ *
+ * <p>
+ * Resolving a classpath takes a few microseconds, too short to set up a parser before each operation. Each invocation
+ * uses a batch of parsers, created before it, and the score is per parser.
+ *
+ * @author Joao Bispo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClasspathParserBenchmark {
+
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Length of the dependency chain.
+	 */
+	@Param({ "10", "100" })
+	public int depth;
+
+	private SyntheticWorkspace repository;
+	private EclipseProjects eclipseProjects;
+	private Optional<UserLibraries> userLibraries;
+
+	private ClasspathParser[] parsers;
+
+	@Setup
+	public void setup() throws IOException {
+		// A single chain
+		repository = new WorkspaceGenerator(0).projects(depth).depth(depth).fanOut(1).generate();
+		eclipseProjects = EclipseProjects.newFromRepository(repository.getFolder());
+		userLibraries = Optional.of(UserLibraries.newInstance(eclipseProjects, repository.getUserLibrariesFile()));
+		parsers = new ClasspathParser[BATCH_SIZE];
+	}
+
+	@Setup(Level.Invocation)
+	public void newParsers() {
+		for (int i = 0; i < parsers.length; i++) {
+			parsers[i] = ClasspathParser.newInstance(eclipseProjects, userLibraries);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		repository.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void getClasspathShallow(Blackhole blackhole) {
+		getClasspath(repository.getFirstProject(), blackhole);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void getClasspathDeep(Blackhole blackhole) {
+		getClasspath(repository.getLastProject(), blackhole);
+	}
+
+	private void getClasspath(String projectName, Blackhole blackhole) {
+		for (ClasspathParser parser : parsers) {
+			// Canonical paths are shared by the whole generator, and would be reused by the next parser otherwise
+			FileCache.clear();
+			blackhole.consume(parser.getClasspath(projectName));
+		}
+	}
+}
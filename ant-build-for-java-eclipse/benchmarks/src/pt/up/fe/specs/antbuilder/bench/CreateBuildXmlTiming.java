@@ -0,0 +1,79 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
+import pt.up.fe.specs.antbuilder.CreateBuildXml;
+import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+import pt.up.fe.specs.antbuilder.utilities.MetadataCache;
+
+/**
+ * End-to-end timing of the generator on a synthetic repository: looking for the projects, resolving the classpaths
+ * and writing build.xml, first without and then with the metadata cache of the previous run.
+ *
+ * <p>
+ * Arguments: [<PROJECTS> [<DEPTH> [<FAN_OUT> [<SEED>]]]].
+ *
+ * @author Joao Bispo
+ *
+ */
+public class CreateBuildXmlTiming {
+
+	private static final int RUNS = 3;
+
+	public static void main(String[] args) throws IOException {
+		int projects = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int fanOut = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		long tic = System.nanoTime();
+		SyntheticWorkspace workspace = new WorkspaceGenerator(seed)
+				.projects(projects)
+				.depth(depth)
+				.fanOut(fanOut)
+				.generate();
+		System.out.println("Generated " + projects + " projects (depth " + depth + ", fan-out " + fanOut + ", seed "
+				+ seed + ") in " + toMillis(tic) + "ms");
+
+		try {
+			File cacheFile = new File(workspace.getFolder(), MetadataCache.DEFAULT_FILENAME);
+			for (int i = 0; i < RUNS; i++) {
+				tic = System.nanoTime();
+
+				// First run starts without cache
+				MetadataCache cache = MetadataCache.newInstance(cacheFile);
+				ClasspathParser parser = ClasspathParser.newInstance(workspace.getFolder(),
+						Optional.of(workspace.getUserLibrariesFile()), cache);
+				long parserTime = toMillis(tic);
+
+				new CreateBuildXml(workspace.getFolder(), parser, Collections.emptyList()).execute();
+				cache.save();
+
+				System.out.println("Run " + i + ": " + toMillis(tic) + "ms (finding projects " + parserTime
+						+ "ms, " + cache.getHits() + " cached files, " + cache.getMisses() + " parsed files)");
+			}
+		} finally {
+			workspace.delete();
+		}
+	}
+
+	private static long toMillis(long tic) {
+		return (System.nanoTime() - tic) / 1_000_000;
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Node;
+import pt.up.fe.specs.antbuilder.classpath.ClasspathEntry;
+import pt.up.fe.specs.antbuilder.utilities.EclipseMetadataReader;
+import pt.up.fe.specs.antbuilder.utilities.XomUtils;
+import pt.up.fe.specs.library.IoUtils;
+import pt.up.fe.specs.library.XmlUtils;
+
+/**
+ * Compares the streaming reader of .classpath and .project files with the previous XOM/DOM parsing.
+ *
+ * <p>
+ * Run with '-prof gc' to compare the allocation rates.
+ *
+ * @author Joao Bispo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetadataParsingBenchmark {
+
+	private static final String[] CHAIN_PROJECT_NAME = { "projectDescription", "name" };
+
+	/**
+	 * Number of entries in the .classpath file.
+	 */
+	@Param({ "10", "100" })
+	public int entries;
+
+	private File folder;
+	private File classpathFile;
+	private File projectFile;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = Files.createTempDirectory("antbuilder-bench").toFile();
+
+		StringBuilder classpath = new StringBuilder();
+		classpath.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<classpath>\n");
+		classpath.append("\t<classpathentry kind=\"src\" path=\"src\"/>\n");
+		for (int i = 0; i < entries; i++) {
+			classpath.append("\t<classpathentry combineaccessrules=\"false\" kind=\"src\" path=\"/project-" + i
+					+ "\"/>\n");
+		}
+		classpath.append("\t<classpathentry kind=\"output\" path=\"bin\"/>\n</classpath>\n");
+
+		classpathFile = new File(folder, ".classpath");
+		Files.write(classpathFile.toPath(), classpath.toString().getBytes(StandardCharsets.UTF_8));
+
+		String project = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<projectDescription>\n"
+				+ "\t<name>bench-project</name>\n\t<comment></comment>\n\t<projects>\n\t</projects>\n"
+				+ "\t<buildSpec>\n\t\t<buildCommand>\n\t\t\t<name>org.eclipse.jdt.core.javabuilder</name>\n"
+				+ "\t\t\t<arguments>\n\t\t\t</arguments>\n\t\t</buildCommand>\n\t</buildSpec>\n"
+				+ "\t<natures>\n\t\t<nature>org.eclipse.jdt.core.javanature</nature>\n\t</natures>\n"
+				+ "</projectDescription>\n";
+
+		projectFile = new File(folder, ".project");
+		Files.write(projectFile.toPath(), project.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@TearDown
+	public void tearDown() {
+		classpathFile.delete();
+		projectFile.delete();
+		folder.delete();
+	}
+
+	@Benchmark
+	public void classpathXom(Blackhole blackhole) {
+		Document classpath = XomUtils.getDocument(IoUtils.read(classpathFile), false);
+		Element element = classpath.getRootElement();
+		for (int i = 0; i < element.getChildCount(); i++) {
+			Node child = element.getChild(i);
+			if (!(child instanceof Element)) {
+				continue;
+			}
+
+			Element childElem = (Element) child;
+			blackhole.consume(childElem.getAttribute("kind").getValue());
+			blackhole.consume(childElem.getAttribute("path").getValue());
+			blackhole.consume(childElem.getAttribute("combineaccessrules"));
+		}
+	}
+
+	@Benchmark
+	public void classpathStax(Blackhole blackhole) {
+		for (ClasspathEntry entry : EclipseMetadataReader.getClasspathEntries(classpathFile)) {
+			blackhole.consume(entry.getKind());
+			blackhole.consume(entry.getPath());
+			blackhole.consume(entry.getCombineAccessRules());
+		}
+	}
+
+	@Benchmark
+	public String projectDom() {
+		return XmlUtils.getText(XmlUtils.getNodeList(projectFile), CHAIN_PROJECT_NAME);
+	}
+
+	@Benchmark
+	public String projectStax() {
+		return EclipseMetadataReader.getProjectName(projectFile);
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.up.fe.specs.antbuilder.CreateBuildXml;
+import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+
+/**
+ * Measures rendering build.xml from the templates, for a repository whose classpaths were already resolved.
+ *
+ * <p>
+ * After the first invocation the contents do not change, so build.xml is compared but not written again.
+ *
+ * @author Joao Bispo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderingBenchmark {
+
+	@Param({ "100", "1000" })
+	public int projects;
+
+	private SyntheticWorkspace repository;
+	private ClasspathParser parser;
+
+	@Setup
+	public void setup() throws IOException {
+		repository = new WorkspaceGenerator(0).projects(projects).generate();
+		parser = ClasspathParser.newInstance(repository.getFolder(), Optional.of(repository.getUserLibrariesFile()));
+
+		// Resolve all classpaths before measuring
+		new CreateBuildXml(repository.getFolder(), parser, Collections.emptyList()).execute();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		repository.delete();
+	}
+
+	@Benchmark
+	public void buildProjects() {
+		new CreateBuildXml(repository.getFolder(), parser, Collections.emptyList()).execute();
+	}
+}
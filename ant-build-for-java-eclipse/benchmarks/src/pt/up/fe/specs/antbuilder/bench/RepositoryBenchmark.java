@@ -0,0 +1,70 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.up.fe.specs.antbuilder.utilities.EclipseProjects;
+
+/**
+ * Measures looking for the projects in a repository.
+ *
+ * @author Joao Bispo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RepositoryBenchmark {
+
+	@Param({ "100", "1000" })
+	public int projects;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private SyntheticWorkspace repository;
+
+	@Setup
+	public void setup() throws IOException {
+		repository = new WorkspaceGenerator(0).projects(projects).generate();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		repository.delete();
+	}
+
+	@Benchmark
+	public EclipseProjects newFromRepository() {
+		return EclipseProjects.newFromRepository(repository.getFolder(), threads);
+	}
+}
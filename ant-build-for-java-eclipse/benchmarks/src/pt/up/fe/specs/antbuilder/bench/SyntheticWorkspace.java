@@ -0,0 +1,87 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A repository written by {@link WorkspaceGenerator}.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class SyntheticWorkspace {
+
+	private final File folder;
+	private final List<String> projectNames;
+	private final List<Integer> levels;
+
+	SyntheticWorkspace(File folder, List<String> projectNames, List<Integer> levels) {
+		this.folder = folder;
+		this.projectNames = Collections.unmodifiableList(projectNames);
+		this.levels = Collections.unmodifiableList(levels);
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	public File getUserLibrariesFile() {
+		return new File(folder, WorkspaceGenerator.USER_LIBRARIES_FILENAME);
+	}
+
+	/**
+	 *
+	 * @return the generated projects, sorted by level
+	 */
+	public List<String> getProjectNames() {
+		return projectNames;
+	}
+
+	/**
+	 *
+	 * @return a project of the first level, which does not depend on other projects
+	 */
+	public String getFirstProject() {
+		return projectNames.get(0);
+	}
+
+	/**
+	 *
+	 * @return a project of the last level, at the end of the longest dependency chain
+	 */
+	public String getLastProject() {
+		return projectNames.get(projectNames.size() - 1);
+	}
+
+	public int getLevel(int projectIndex) {
+		return levels.get(projectIndex);
+	}
+
+	/**
+	 * Deletes the repository.
+	 */
+	public void delete() throws IOException {
+		try (Stream<Path> paths = Files.walk(folder.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+}
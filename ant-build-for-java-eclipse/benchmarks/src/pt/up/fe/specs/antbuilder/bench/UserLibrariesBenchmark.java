@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nu.xom.Document;
+import pt.up.fe.specs.antbuilder.utilities.EclipseProjects;
+import pt.up.fe.specs.antbuilder.utilities.UserLibraries;
+import pt.up.fe.specs.antbuilder.utilities.XomUtils;
+import pt.up.fe.specs.library.IoUtils;
+
+/**
+ * Measures parsing an exported .userlibraries file (which is done by UserLibrariesParser.parse), and building a XOM
+ * document from the same file.
+ *
+ * @author Joao Bispo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserLibrariesBenchmark {
+
+	@Param({ "10", "100" })
+	public int libraries;
+
+	@Param({ "5" })
+	public int jarsPerLibrary;
+
+	private SyntheticWorkspace repository;
+	private EclipseProjects eclipseProjects;
+	private String userLibrariesContents;
+
+	@Setup
+	public void setup() throws IOException {
+		repository = new WorkspaceGenerator(0).projects(1).depth(1).libraries(libraries, jarsPerLibrary).generate();
+		eclipseProjects = EclipseProjects.newFromRepository(repository.getFolder());
+		userLibrariesContents = IoUtils.read(repository.getUserLibrariesFile());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		repository.delete();
+	}
+
+	@Benchmark
+	public UserLibraries parse() {
+		// Uses a transient metadata cache, the file is always parsed
+		return UserLibraries.newInstance(eclipseProjects, repository.getUserLibrariesFile());
+	}
+
+	@Benchmark
+	public Document xomGetDocument() {
+		return XomUtils.getDocument(userLibrariesContents, false);
+	}
+}
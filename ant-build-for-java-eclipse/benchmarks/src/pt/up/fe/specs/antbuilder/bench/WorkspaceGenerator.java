@@ -0,0 +1,345 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Writes synthetic repositories of Eclipse projects, for benchmarks and timing runs at scale.
+ *
+ * <p>
+ * Projects are spread over a number of levels, and only depend on projects of previous levels. Each project that is
+ * not in the first level depends on at least one project of the previous level, so the longest dependency chain has
+ * the length of the number of levels. The remaining dependencies are chosen at random, avoiding projects that already
+ * have the maximum number of dependents.
+ *
+ * <p>
+ * The same seed and options always produce the same repository.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class WorkspaceGenerator {
+
+	public static final String LIBRARIES_PROJECT = "libs";
+	public static final String USER_LIBRARIES_FILENAME = ".userlibraries";
+
+	// Projects per group folder, so that the repository is not flat
+	private static final int PROJECTS_PER_GROUP = 100;
+
+	private final long seed;
+
+	private int projects;
+	private int depth;
+	private int fanOut;
+	private int maxFanIn;
+	private int libraries;
+	private int jarsPerLibrary;
+	private int librariesPerProject;
+	private int sourceFiles;
+
+	public WorkspaceGenerator(long seed) {
+		this.seed = seed;
+
+		this.projects = 100;
+		this.depth = 10;
+		this.fanOut = 2;
+		this.maxFanIn = Integer.MAX_VALUE;
+		this.libraries = 10;
+		this.jarsPerLibrary = 5;
+		this.librariesPerProject = 1;
+		this.sourceFiles = 1;
+	}
+
+	/**
+	 * Number of projects, not counting the project with the jars of the user libraries.
+	 */
+	public WorkspaceGenerator projects(int projects) {
+		this.projects = projects;
+		return this;
+	}
+
+	/**
+	 * Number of levels, which is the length of the longest dependency chain.
+	 */
+	public WorkspaceGenerator depth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * Number of projects each project directly depends on (fewer, if there are not enough projects in previous
+	 * levels).
+	 */
+	public WorkspaceGenerator fanOut(int fanOut) {
+		this.fanOut = fanOut;
+		return this;
+	}
+
+	/**
+	 * Maximum number of projects that directly depend on a project, except for the dependency on the previous level
+	 * that keeps the depth.
+	 */
+	public WorkspaceGenerator maxFanIn(int maxFanIn) {
+		this.maxFanIn = maxFanIn;
+		return this;
+	}
+
+	public WorkspaceGenerator libraries(int libraries, int jarsPerLibrary) {
+		this.libraries = libraries;
+		this.jarsPerLibrary = jarsPerLibrary;
+		return this;
+	}
+
+	/**
+	 * Number of user libraries each project references.
+	 */
+	public WorkspaceGenerator librariesPerProject(int librariesPerProject) {
+		this.librariesPerProject = librariesPerProject;
+		return this;
+	}
+
+	/**
+	 * Number of Java files in the source folder of each project.
+	 */
+	public WorkspaceGenerator sourceFiles(int sourceFiles) {
+		this.sourceFiles = sourceFiles;
+		return this;
+	}
+
+	/**
+	 * Writes a repository in a new temporary folder.
+	 *
+	 * @return
+	 */
+	public SyntheticWorkspace generate() throws IOException {
+		return generate(Files.createTempDirectory("antbuilder-workspace").toFile());
+	}
+
+	/**
+	 * Writes a repository in the given folder.
+	 *
+	 * @param folder
+	 * @return
+	 */
+	public SyntheticWorkspace generate(File folder) throws IOException {
+		Random random = new Random(seed);
+
+		List<String> projectNames = new ArrayList<>();
+		List<Integer> levels = new ArrayList<>();
+		for (int i = 0; i < projects; i++) {
+			projectNames.add(getProjectName(i));
+			// Projects are sorted by level
+			levels.add((int) ((long) i * depth / projects));
+		}
+
+		SyntheticWorkspace workspace = new SyntheticWorkspace(folder, projectNames, levels);
+
+		List<String> libraryNames = writeLibraries(workspace);
+
+		int[] fanIn = new int[projects];
+		int levelStart = 0;
+		int previousLevelStart = 0;
+		for (int i = 0; i < projects; i++) {
+			int level = levels.get(i);
+			if (i > 0 && level != levels.get(i - 1)) {
+				previousLevelStart = levelStart;
+				levelStart = i;
+			}
+
+			List<Integer> dependencies = new ArrayList<>();
+			if (level > 0) {
+				dependencies.addAll(chooseDependencies(random, previousLevelStart, levelStart, fanIn));
+			}
+
+			List<String> projectLibraries = new ArrayList<>();
+			Set<Integer> chosenLibraries = new LinkedHashSet<>();
+			for (int j = 0; j < Math.min(librariesPerProject, libraryNames.size()); j++) {
+				int library;
+				do {
+					library = random.nextInt(libraryNames.size());
+				} while (!chosenLibraries.add(library));
+				projectLibraries.add(libraryNames.get(library));
+			}
+
+			writeProject(workspace, i, dependencies, projectLibraries);
+		}
+
+		return workspace;
+	}
+
+	/**
+	 * One dependency in the previous level, and the others in any previous level.
+	 */
+	private Set<Integer> chooseDependencies(Random random, int previousLevelStart, int levelStart, int[] fanIn) {
+		Set<Integer> dependencies = new LinkedHashSet<>();
+
+		int parent = previousLevelStart + random.nextInt(levelStart - previousLevelStart);
+		dependencies.add(parent);
+		fanIn[parent]++;
+
+		int targetFanOut = Math.min(fanOut, levelStart);
+		// Bounded, in case most projects already have the maximum fan-in
+		int attempts = 0;
+		while (dependencies.size() < targetFanOut && attempts < fanOut * 10) {
+			attempts++;
+
+			int candidate = random.nextInt(levelStart);
+			if (fanIn[candidate] >= maxFanIn || !dependencies.add(candidate)) {
+				continue;
+			}
+
+			fanIn[candidate]++;
+		}
+
+		return dependencies;
+	}
+
+	public static String getProjectName(int index) {
+		return "project-" + index;
+	}
+
+	private static String getPackageName(int index) {
+		return "pkg" + index;
+	}
+
+	private List<String> writeLibraries(SyntheticWorkspace workspace) throws IOException {
+		File libsFolder = new File(workspace.getFolder(), LIBRARIES_PROJECT);
+		write(new File(libsFolder, ".project"), getProjectFile(LIBRARIES_PROJECT));
+
+		List<String> libraryNames = new ArrayList<>();
+
+		StringBuilder userLibraries = new StringBuilder();
+		userLibraries.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+		userLibraries.append("<eclipse-userlibraries version=\"2\">\n");
+		for (int i = 0; i < libraries; i++) {
+			String libraryName = "lib-" + i;
+			libraryNames.add(libraryName);
+
+			userLibraries.append("\t<library name=\"" + libraryName + "\" systemlibrary=\"false\">\n");
+			for (int j = 0; j < jarsPerLibrary; j++) {
+				String jarName = libraryName + "-" + j + ".jar";
+				writeJar(new File(libsFolder, "jars/" + jarName));
+				userLibraries.append("\t\t<archive path=\"/" + LIBRARIES_PROJECT + "/jars/" + jarName + "\"/>\n");
+			}
+			userLibraries.append("\t</library>\n");
+		}
+		userLibraries.append("</eclipse-userlibraries>\n");
+
+		write(workspace.getUserLibrariesFile(), userLibraries.toString());
+
+		return libraryNames;
+	}
+
+	private void writeProject(SyntheticWorkspace workspace, int index, List<Integer> dependencies,
+			List<String> projectLibraries) throws IOException {
+
+		String projectName = getProjectName(index);
+		File projectFolder = new File(workspace.getFolder(),
+				"group-" + (index / PROJECTS_PER_GROUP) + "/" + projectName);
+
+		write(new File(projectFolder, ".project"), getProjectFile(projectName));
+
+		StringBuilder classpath = new StringBuilder();
+		classpath.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<classpath>\n");
+		classpath.append("\t<classpathentry kind=\"src\" path=\"src\"/>\n");
+		classpath.append("\t<classpathentry kind=\"con\" path=\"org.eclipse.jdt.launching.JRE_CONTAINER\"/>\n");
+		for (int dependency : dependencies) {
+			classpath.append("\t<classpathentry combineaccessrules=\"false\" kind=\"src\" path=\"/"
+					+ getProjectName(dependency) + "\"/>\n");
+		}
+		for (String library : projectLibraries) {
+			classpath.append("\t<classpathentry kind=\"con\" path=\"org.eclipse.jdt.USER_LIBRARY/" + library
+					+ "\"/>\n");
+		}
+		classpath.append("\t<classpathentry kind=\"output\" path=\"bin\"/>\n</classpath>\n");
+		write(new File(projectFolder, ".classpath"), classpath.toString());
+
+		// Classes use the first class of each dependency, so that the projects must be compiled in order
+		String packageName = getPackageName(index);
+		for (int i = 0; i < sourceFiles; i++) {
+			StringBuilder source = new StringBuilder();
+			source.append("package " + packageName + ";\n\npublic class Class" + i + " {\n");
+			if (i == 0) {
+				for (int dependency : dependencies) {
+					source.append("\tprivate " + getPackageName(dependency) + ".Class0 field" + dependency
+							+ ";\n");
+				}
+			}
+			source.append("\n\tpublic int getValue() {\n\t\treturn " + i + ";\n\t}\n}\n");
+
+			write(new File(projectFolder, "src/" + packageName + "/Class" + i + ".java"), source.toString());
+		}
+	}
+
+	private static String getProjectFile(String projectName) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<projectDescription>\n"
+				+ "\t<name>" + projectName + "</name>\n\t<comment></comment>\n\t<projects>\n\t</projects>\n"
+				+ "\t<buildSpec>\n\t\t<buildCommand>\n\t\t\t<name>org.eclipse.jdt.core.javabuilder</name>\n"
+				+ "\t\t\t<arguments>\n\t\t\t</arguments>\n\t\t</buildCommand>\n\t</buildSpec>\n"
+				+ "\t<natures>\n\t\t<nature>org.eclipse.jdt.core.javanature</nature>\n\t</natures>\n"
+				+ "</projectDescription>\n";
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes a valid JAR with only a manifest, javac fails on empty files in the classpath.
+	 */
+	private static void writeJar(File file) throws IOException {
+		file.getParentFile().mkdirs();
+
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		try (FileOutputStream output = new FileOutputStream(file)) {
+			new JarOutputStream(output, manifest).finish();
+		}
+	}
+
+	/**
+	 * Writes a repository with the options given in the arguments: <FOLDER> [<PROJECTS> [<DEPTH> [<FAN_OUT>
+	 * [<SEED>]]]].
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Needs at least one argument, the output folder. Optionally: projects, depth, "
+					+ "fan-out and seed");
+			return;
+		}
+
+		WorkspaceGenerator generator = new WorkspaceGenerator(args.length > 4 ? Long.parseLong(args[4]) : 0)
+				.projects(args.length > 1 ? Integer.parseInt(args[1]) : 1000)
+				.depth(args.length > 2 ? Integer.parseInt(args[2]) : 10)
+				.fanOut(args.length > 3 ? Integer.parseInt(args[3]) : 2);
+
+		SyntheticWorkspace workspace = generator.generate(new File(args[0]));
+		System.out.println("Wrote " + workspace.getProjectNames().size() + " projects to '" + workspace.getFolder()
+				+ "'");
+	}
+}
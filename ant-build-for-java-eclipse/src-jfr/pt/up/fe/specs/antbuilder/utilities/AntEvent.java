@@ -0,0 +1,47 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for the execution of an ANT target or task, recorded by {@link MetricsListener}.
+ *
+ * @author Joao Bispo
+ *
+ */
+@Name("pt.up.fe.specs.antbuilder.Ant")
+@Label("ANT Target or Task")
+@Category("ANT Builder")
+@Description("The execution of a target or task of build.xml")
+class AntEvent extends Event {
+
+	@Label("Kind")
+	@Description("'target' or 'task'")
+	String kind;
+
+	@Label("Name")
+	String name;
+
+	@Label("Target")
+	@Description("The target the task belongs to, or the target itself")
+	String target;
+
+	@Label("Success")
+	boolean success;
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+/**
+ * Records the events of the generator as JFR events. Created by {@link EventRecorder#get()} when JFR is available.
+ *
+ * @author Joao Bispo
+ *
+ */
+class JfrEventRecorder extends EventRecorder {
+
+	@Override
+	public PhaseRecord startPhase(String phase, String projectName) {
+		PhaseEvent event = new PhaseEvent();
+		event.phase = phase;
+		event.project = projectName;
+		event.begin();
+
+		return (count, allocatedBytes) -> {
+			event.end();
+			if (event.shouldCommit()) {
+				event.count = count;
+				event.allocated = allocatedBytes;
+				event.commit();
+			}
+		};
+	}
+
+	@Override
+	public AntRecord startAnt(String kind, String name, String target) {
+		AntEvent event = new AntEvent();
+		event.kind = kind;
+		event.name = name;
+		event.target = target;
+		event.begin();
+
+		return success -> {
+			event.end();
+			if (event.shouldCommit()) {
+				event.success = success;
+				event.commit();
+			}
+		};
+	}
+}
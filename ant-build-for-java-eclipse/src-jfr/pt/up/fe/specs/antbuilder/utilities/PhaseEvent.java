@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for an execution of a {@link Phase}. Only recorded when a JFR recording is running (e.g., started with
+ * -XX:StartFlightRecording), otherwise it has almost no cost.
+ *
+ * @author Joao Bispo
+ *
+ */
+@Name("pt.up.fe.specs.antbuilder.Phase")
+@Label("Generator Phase")
+@Category("ANT Builder")
+@Description("An execution of a phase of the build.xml generator")
+class PhaseEvent extends Event {
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Project")
+	@Description("The project the phase was executed for, empty if the phase is not for a single project")
+	String project;
+
+	@Label("Count")
+	@Description("What is counted depends on the phase (e.g., number of projects found, bytes written)")
+	long count;
+
+	@Label("Allocated")
+	@Description("Bytes allocated by the thread that executed the phase")
+	@DataAmount
+	long allocated;
+}
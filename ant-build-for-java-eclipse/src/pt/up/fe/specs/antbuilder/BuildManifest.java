@@ -0,0 +1,257 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pt.up.fe.specs.library.Log;
+
+/**
+ * The rendered build.xml fragments of each project in a previous run, together with a fingerprint of the inputs used
+ * to render them.
+ *
+ * <p>
+ * When the fingerprint of a project did not change, its fragments can be reused instead of rendered again.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class BuildManifest {
+
+	public static final String DEFAULT_FILENAME = ".antbuilder.manifest";
+
+	private static final int MAGIC = 0x41424D46;
+	// 2: macro names of projects with replaced characters have a hash suffix
+	// 3: the incremental compile also compares the lists of sources and libraries
+	private static final int VERSION = 3;
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+
+	public static class Fragments {
+		private final String fingerprint;
+		private final String compile;
+		private final String junit;
+		private final String clean;
+
+		public Fragments(String fingerprint, String compile, String junit, String clean) {
+			this.fingerprint = fingerprint;
+			this.compile = compile;
+			this.junit = junit;
+			this.clean = clean;
+		}
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		public String getCompile() {
+			return compile;
+		}
+
+		public String getJUnit() {
+			return junit;
+		}
+
+		public String getClean() {
+			return clean;
+		}
+	}
+
+	// Fragments are only valid for the templates used to render them
+	private final String templatesHash;
+	private final Map<String, Fragments> fragments;
+
+	private BuildManifest(String templatesHash, Map<String, Fragments> fragments) {
+		this.templatesHash = templatesHash;
+		this.fragments = fragments;
+	}
+
+	public static BuildManifest newInstance() {
+		return new BuildManifest(getTemplatesHash(), new LinkedHashMap<>());
+	}
+
+	/**
+	 * Reads a manifest from the given file. If the file does not exist, cannot be read, or was rendered with different
+	 * templates, returns an empty manifest.
+	 *
+	 * @param manifestFile
+	 * @return
+	 */
+	public static BuildManifest read(File manifestFile) {
+		BuildManifest manifest = newInstance();
+
+		if (!manifestFile.isFile()) {
+			return manifest;
+		}
+
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(manifestFile)))) {
+
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				return manifest;
+			}
+
+			if (!readString(input).equals(manifest.templatesHash)) {
+				Log.info("Templates changed since last run, rendering all projects");
+				return manifest;
+			}
+
+			int numProjects = input.readInt();
+			for (int i = 0; i < numProjects; i++) {
+				String projectName = readString(input);
+				Fragments fragments = new Fragments(readString(input), readString(input), readString(input),
+						readString(input));
+
+				manifest.fragments.put(projectName, fragments);
+			}
+		} catch (IOException e) {
+			Log.warn("Could not read build manifest '" + manifestFile + "', rendering all projects: " + e);
+			return newInstance();
+		}
+
+		return manifest;
+	}
+
+	/**
+	 *
+	 * @param projectName
+	 * @param fingerprint
+	 * @return the fragments of the project, if they were rendered from inputs with the same fingerprint, or null
+	 *         otherwise
+	 */
+	public Fragments get(String projectName, String fingerprint) {
+		Fragments projectFragments = fragments.get(projectName);
+		if (projectFragments == null || !projectFragments.getFingerprint().equals(fingerprint)) {
+			return null;
+		}
+
+		return projectFragments;
+	}
+
+	/**
+	 * 
+	 * @param projectName
+	 * @return the fragments of the project, or null if there are none
+	 */
+	public Fragments get(String projectName) {
+		return fragments.get(projectName);
+	}
+
+	public void put(String projectName, Fragments projectFragments) {
+		fragments.put(projectName, projectFragments);
+	}
+
+	public void write(File manifestFile) {
+		File tempFile = new File(manifestFile.getPath() + ".tmp");
+
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			writeString(output, templatesHash);
+
+			output.writeInt(fragments.size());
+			for (Map.Entry<String, Fragments> entry : fragments.entrySet()) {
+				Fragments projectFragments = entry.getValue();
+
+				writeString(output, entry.getKey());
+				writeString(output, projectFragments.getFingerprint());
+				writeString(output, projectFragments.getCompile());
+				writeString(output, projectFragments.getJUnit());
+				writeString(output, projectFragments.getClean());
+			}
+		} catch (IOException e) {
+			Log.warn("Could not write build manifest '" + manifestFile + "'", e);
+			tempFile.delete();
+			return;
+		}
+
+		try {
+			Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.warn("Could not replace build manifest '" + manifestFile + "'", e);
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 *
+	 * @param inputs
+	 * @return a hash of the given strings, as an hexadecimal string
+	 */
+	public static String hash(Collection<String> inputs) {
+		MessageDigest digest = newDigest();
+
+		for (String input : inputs) {
+			digest.update(input.getBytes(StandardCharsets.UTF_8));
+			// Separator, so that ["ab", "c"] and ["a", "bc"] are different
+			digest.update((byte) 0);
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte value : digest.digest()) {
+			hex.append(String.format("%02x", value));
+		}
+
+		return hex.toString();
+	}
+
+	private static String getTemplatesHash() {
+		List<String> templates = new ArrayList<>();
+		for (BuildResource resource : BuildResource.values()) {
+			templates.add(BuildTemplate.get(resource).getText());
+		}
+
+		return hash(templates);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Could not find hash algorithm '" + HASH_ALGORITHM + "'", e);
+		}
+	}
+
+	// DataOutput.writeUTF is limited to 64KB, fragments can be larger
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import pt.up.fe.specs.library.Log;
+
+/**
+ * Options of the generator, read from Java system properties (e.g., -Dantbuilder.threads=8).
+ *
+ * @author Joao Bispo
+ *
+ */
+public enum BuildProperty {
+
+	/**
+	 * Number of threads used when looking for projects in the repository and when parsing them. If 0, uses the number
+	 * of available processors.
+	 */
+	THREADS("threads", "0"),
+
+	/**
+	 * If true, keeps the parsed Eclipse metadata files in a cache file in the root of the repository, and only parses
+	 * again the files that changed.
+	 */
+	CACHE("cache", "true"),
+
+	/**
+	 * If true, keeps the rendered fragments of each project in a manifest file, and only renders again the projects
+	 * whose inputs changed.
+	 */
+	INCREMENTAL("incremental", "false"),
+
+	/**
+	 * If greater than 1, the 'compile' target compiles independent projects in parallel, using at most this number of
+	 * threads.
+	 */
+	COMPILE_THREADS("compile.threads", "1"),
+
+	/**
+	 * If true, the 'compile' target does not clean the projects first, and skips the compilation of projects whose
+	 * sources, dependencies and libraries did not change since their last compilation.
+	 */
+	COMPILE_INCREMENTAL("compile.incremental", "false"),
+
+	/**
+	 * If greater than 1, the 'junit' target runs the tests in forked JVMs, running at most this number of JVMs at the
+	 * same time.
+	 */
+	JUNIT_THREADS("junit.threads", "1"),
+
+	/**
+	 * When tests run in forked JVMs, the number of shards the test classes of each project are split into.
+	 */
+	JUNIT_SHARDS("junit.shards", "1"),
+
+	/**
+	 * How the projects are built. If 'ant', generates build.xml. If 'javac', compiles the projects inside the
+	 * generator, without generating build.xml.
+	 */
+	ENGINE("engine", "ant"),
+
+	/**
+	 * The jars needed to run JUnit tests when the projects are built inside the generator (e.g., junit.jar and
+	 * hamcrest-core.jar), separated by the path separator of the platform. If empty, tests are not run.
+	 */
+	JUNIT_CLASSPATH("junit.classpath", ""),
+
+	/**
+	 * What to do when projects have cyclic dependencies. If 'warn', reports each cycle. If 'fail', reports each cycle
+	 * and stops. If 'merge', reports each cycle and compiles the projects of the cycle together.
+	 */
+	CYCLES("cycles", "warn"),
+
+	/**
+	 * If true, logs a table with the time, counts and allocated bytes of each phase of the generator when it ends.
+	 */
+	TIMING("timing", "true"),
+
+	/**
+	 * Number of cores the build ran on, used by the build report to compute the idle core time. If 0, uses the number
+	 * of available processors.
+	 */
+	REPORT_CORES("report.cores", "0");
+
+	private final static String PREFIX = "antbuilder.";
+
+	private final String key;
+	private final String defaultValue;
+
+	private BuildProperty(String key, String defaultValue) {
+		this.key = PREFIX + key;
+		this.defaultValue = defaultValue;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getValue() {
+		return System.getProperty(key, defaultValue);
+	}
+
+	public boolean getBoolean() {
+		return Boolean.parseBoolean(getValue().trim());
+	}
+
+	public int getInt() {
+		String value = getValue().trim();
+
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			Log.warn("Could not parse value '" + value + "' of property '" + key + "' as an integer, using default '"
+					+ defaultValue + "'");
+			return Integer.parseInt(defaultValue);
+		}
+	}
+
+}
@@ -0,0 +1,627 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+import pt.up.fe.specs.antbuilder.utilities.MetadataCache;
+import pt.up.fe.specs.antbuilder.utilities.MetricsListener;
+import pt.up.fe.specs.library.IoUtils;
+import pt.up.fe.specs.library.Log;
+
+/**
+ * Critical path, idle core time and slack of a build, from the timings recorded by {@link MetricsListener} and the
+ * dependencies between the projects.
+ *
+ * <p>
+ * Each project has a compile step (the target 'compile_&lt;PROJECT_NAME&gt;' or its compilation macro) and a test step
+ * (the target 'junit_&lt;PROJECT_NAME&gt;' or the macros of its shards). A compile step depends on the compile steps of
+ * the projects it depends on. Inside a dependency cycle, the projects depend on the first project of the cycle, as
+ * when cycles are merged. Test steps depend on all compile steps, as the test targets of build.xml depend on the
+ * 'compile' target.
+ *
+ * <p>
+ * The critical path is the longest chain of steps, using the measured duration of each step. It is a lower bound of
+ * the wall-clock time of the build, whatever the number of cores: the build also waits for ANT to start the steps,
+ * and for cores to be free. The slack of a step is how much it can be delayed without making the critical path
+ * longer.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class BuildReport {
+
+	public static final String SUMMARY_FILENAME = "build-report.txt";
+	public static final String CSV_FILENAME = "build-report.csv";
+
+	// Steps closer than this to the critical path (in milliseconds) are also critical
+	private static final double TOLERANCE = 1e-3;
+
+	private static final int MAX_LISTED_STEPS = 10;
+
+	// Kind of the step that waits for all compile steps, which is not reported
+	private static final String BARRIER_KIND = "barrier";
+
+	/**
+	 * The compilation or the tests of a project.
+	 */
+	public static class Step {
+		private final String name;
+		private final String projectName;
+		private final String kind;
+		private final List<Step> dependencies;
+
+		private long startMillis;
+		private long endMillis;
+		private double workMillis;
+
+		private double earliestStart;
+		private double latestStart;
+		private double saving;
+
+		private Step(String name, String projectName, String kind) {
+			this.name = name;
+			this.projectName = projectName;
+			this.kind = kind;
+			this.dependencies = new ArrayList<>();
+			this.startMillis = Long.MAX_VALUE;
+			this.endMillis = Long.MIN_VALUE;
+		}
+
+		private void add(MetricsListener.Record record) {
+			startMillis = Math.min(startMillis, record.getStartMillis());
+			endMillis = Math.max(endMillis, record.getEndMillis());
+			workMillis += record.getDurationNanos() / 1_000_000.0;
+		}
+
+		private boolean hasRecords() {
+			return startMillis != Long.MAX_VALUE;
+		}
+
+		private boolean isBarrier() {
+			return kind.equals(BARRIER_KIND);
+		}
+
+		/**
+		 *
+		 * @return the target name (e.g., 'compile_&lt;PROJECT_NAME&gt;')
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public String getProjectName() {
+			return projectName;
+		}
+
+		/**
+		 *
+		 * @return 'compile' or 'junit'
+		 */
+		public String getKind() {
+			return kind;
+		}
+
+		/**
+		 * The time from the start of the first record of the step to the end of the last, which is the duration of a
+		 * single target, or of all shards of a project running at the same time.
+		 *
+		 * @return
+		 */
+		public double getDuration() {
+			// Records of a single task are more precise than the difference of start and end
+			return Math.min(endMillis - startMillis, workMillis);
+		}
+
+		/**
+		 *
+		 * @return the sum of the durations of the records of this step, in milliseconds
+		 */
+		public double getWork() {
+			return workMillis;
+		}
+
+		public double getSlack() {
+			return latestStart - earliestStart;
+		}
+
+		public boolean isCritical() {
+			return getSlack() < TOLERANCE;
+		}
+
+		/**
+		 *
+		 * @return how much the critical path would be shorter if this step took no time, in milliseconds
+		 */
+		public double getSaving() {
+			return saving;
+		}
+	}
+
+	private final List<Step> steps;
+	private final List<Step> criticalPath;
+	private final long buildStartMillis;
+	private final long buildEndMillis;
+	private final int cores;
+
+	private BuildReport(List<Step> steps, long buildStartMillis, long buildEndMillis, int cores) {
+		this.buildStartMillis = buildStartMillis;
+		this.buildEndMillis = buildEndMillis;
+		this.cores = cores;
+
+		// Steps are in topological order, dependencies come first
+		double length = schedule(steps);
+		List<Step> path = getCriticalPath(steps);
+
+		for (Step step : path) {
+			step.saving = length - getLength(steps, step);
+		}
+
+		// The barrier only takes part in the schedule, it is not a target of the build
+		this.steps = withoutBarrier(steps);
+		this.criticalPath = withoutBarrier(path);
+	}
+
+	private static List<Step> withoutBarrier(List<Step> steps) {
+		List<Step> reportedSteps = new ArrayList<>(steps);
+		reportedSteps.removeIf(Step::isBarrier);
+
+		return reportedSteps;
+	}
+
+	public static void main(String args[]) {
+		if (args.length < 1) {
+			Log.info("Needs at least one argument, the root of the repository where build.xml ran. Optionally, the second argument can be the user libraries file exported from Eclipse (.userlibraries)");
+			return;
+		}
+
+		File repFolder = IoUtils.existingFolder(null, args[0]);
+		if (repFolder == null) {
+			return;
+		}
+
+		Optional<File> userLibrariesFile = Optional.empty();
+		if (args.length > 1) {
+			userLibrariesFile = Optional.of(IoUtils.existingFile(args[1]));
+		}
+
+		MetadataCache cache = BuildProperty.CACHE.getBoolean()
+				? MetadataCache.newInstance(new File(repFolder, MetadataCache.DEFAULT_FILENAME))
+				: MetadataCache.newTransient();
+
+		ClasspathParser parser = ClasspathParser.newInstance(repFolder, userLibrariesFile, cache);
+
+		new CreateBuildXml(repFolder, parser, CreateBuildXml.getIgnoreList()).report();
+		cache.save();
+	}
+
+	/**
+	 * Builds the steps of the given projects from the given records, and computes their schedule.
+	 *
+	 * <p>
+	 * Steps without records (e.g., tests that did not run) are not part of the report.
+	 *
+	 * @param projectNames
+	 * @param parser
+	 * @param records
+	 * @param cores
+	 *            the number of cores the build ran on
+	 * @return
+	 */
+	public static BuildReport newInstance(List<String> projectNames, ClasspathParser parser,
+			List<MetricsListener.Record> records, int cores) {
+
+		// Steps of each project, indexed by the names of their targets and macros
+		Map<String, Step> compileSteps = new HashMap<>();
+		Map<String, Step> junitSteps = new HashMap<>();
+		Map<String, Step> stepsByName = new HashMap<>();
+		for (String projectName : projectNames) {
+			Step compile = new Step(BuildUtils.getCompileTargetName(projectName), projectName, "compile");
+			compileSteps.put(projectName, compile);
+			stepsByName.put(compile.name, compile);
+			stepsByName.put(BuildUtils.getCompileMacroName(projectName), compile);
+
+			Step junit = new Step(BuildUtils.getJUnitTargetName(projectName), projectName, "junit");
+			junitSteps.put(projectName, junit);
+			stepsByName.put(junit.name, junit);
+			stepsByName.put(getShardPrefix(projectName), junit);
+		}
+
+		long buildStartMillis = Long.MAX_VALUE;
+		long buildEndMillis = Long.MIN_VALUE;
+		for (MetricsListener.Record record : records) {
+			buildStartMillis = Math.min(buildStartMillis, record.getStartMillis());
+			buildEndMillis = Math.max(buildEndMillis, record.getEndMillis());
+
+			Step step = stepsByName.get(record.getName());
+			if (step == null) {
+				// Shards of the same project only differ in the index after the last '.'
+				int dotIndex = record.getName().lastIndexOf('.');
+				step = dotIndex == -1 ? null : stepsByName.get(record.getName().substring(0, dotIndex + 1));
+			}
+
+			if (step != null) {
+				step.add(record);
+			}
+		}
+
+		if (buildStartMillis == Long.MAX_VALUE) {
+			throw new RuntimeException("No targets or tasks found in the ANT metrics");
+		}
+
+		// Projects of a cycle depend on the first project of the cycle, instead of on each other
+		Map<String, List<String>> cycles = new HashMap<>();
+		for (List<String> cycle : parser.getGraph().getCycles(projectNames)) {
+			for (String projectName : cycle) {
+				cycles.put(projectName, cycle);
+			}
+		}
+
+		for (String projectName : projectNames) {
+			Step compile = compileSteps.get(projectName);
+			List<String> cycle = cycles.getOrDefault(projectName, Collections.emptyList());
+
+			if (!cycle.isEmpty() && !cycle.get(0).equals(projectName)) {
+				compile.dependencies.add(compileSteps.get(cycle.get(0)));
+			}
+
+			for (String parent : parser.getClasspath(projectName).getParentProjects()) {
+				Step parentCompile = compileSteps.get(parent);
+				if (parentCompile == null || cycle.contains(parent)) {
+					continue;
+				}
+
+				compile.dependencies.add(parentCompile);
+			}
+
+		}
+
+		// Instead of each test step depending on every compile step
+		Step barrier = new Step("compile", "", BARRIER_KIND);
+		barrier.startMillis = buildStartMillis;
+		barrier.endMillis = buildStartMillis;
+
+		List<Step> steps = new ArrayList<>();
+		for (String projectName : projectNames) {
+			Step compile = compileSteps.get(projectName);
+			addStep(compile, steps);
+			barrier.dependencies.add(compile);
+		}
+		addStep(barrier, steps);
+		for (String projectName : projectNames) {
+			Step junit = junitSteps.get(projectName);
+			junit.dependencies.add(barrier);
+			addStep(junit, steps);
+		}
+
+		return new BuildReport(sortTopologically(steps), buildStartMillis, buildEndMillis, cores);
+	}
+
+	/**
+	 * Orders the steps so that each step comes after its dependencies, keeping the given order when possible.
+	 */
+	private static List<Step> sortTopologically(List<Step> steps) {
+		Map<Step, Integer> pendingDependencies = new HashMap<>();
+		Map<Step, List<Step>> dependents = new HashMap<>();
+		Deque<Step> ready = new ArrayDeque<>();
+
+		for (Step step : steps) {
+			pendingDependencies.put(step, step.dependencies.size());
+			for (Step dependency : step.dependencies) {
+				dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(step);
+			}
+
+			if (step.dependencies.isEmpty()) {
+				ready.add(step);
+			}
+		}
+
+		List<Step> sortedSteps = new ArrayList<>(steps.size());
+		while (!ready.isEmpty()) {
+			Step step = ready.poll();
+			sortedSteps.add(step);
+
+			for (Step dependent : dependents.getOrDefault(step, Collections.emptyList())) {
+				if (pendingDependencies.merge(dependent, -1, Integer::sum) == 0) {
+					ready.add(dependent);
+				}
+			}
+		}
+
+		// Dependencies inside cycles were replaced, so this should not happen
+		if (sortedSteps.size() != steps.size()) {
+			throw new RuntimeException("Found a dependency cycle between the steps of the build");
+		}
+
+		return sortedSteps;
+	}
+
+	/**
+	 * The name of the macros of the shards of the project, without the shard index.
+	 */
+	private static String getShardPrefix(String projectName) {
+		String firstShard = BuildUtils.getJUnitMacroName(projectName, 0);
+		return firstShard.substring(0, firstShard.length() - 1);
+	}
+
+	private static void addStep(Step step, List<Step> steps) {
+		if (!step.hasRecords()) {
+			return;
+		}
+
+		step.dependencies.removeIf(dependency -> !dependency.hasRecords());
+		steps.add(step);
+	}
+
+	/**
+	 * Sets the earliest and latest start of each step.
+	 *
+	 * @param steps
+	 *            in topological order
+	 * @return the length of the critical path
+	 */
+	private static double schedule(List<Step> steps) {
+		double length = 0;
+		for (Step step : steps) {
+			step.earliestStart = getEarliestStart(step, null);
+			length = Math.max(length, step.earliestStart + step.getDuration());
+		}
+
+		// Latest finish of each step, the latest start of the steps that depend on it
+		Map<Step, Double> latestFinish = new HashMap<>();
+		for (int i = steps.size() - 1; i >= 0; i--) {
+			Step step = steps.get(i);
+			step.latestStart = latestFinish.getOrDefault(step, length) - step.getDuration();
+
+			for (Step dependency : step.dependencies) {
+				latestFinish.merge(dependency, step.latestStart, Math::min);
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * The earliest start of a step, from the earliest start of its dependencies.
+	 *
+	 * @param skippedStep
+	 *            a step whose duration is considered to be 0, or null
+	 */
+	private static double getEarliestStart(Step step, Step skippedStep) {
+		double earliestStart = 0;
+		for (Step dependency : step.dependencies) {
+			double duration = dependency == skippedStep ? 0 : dependency.getDuration();
+			earliestStart = Math.max(earliestStart, dependency.earliestStart + duration);
+		}
+
+		return earliestStart;
+	}
+
+	/**
+	 * The length of the critical path if the given step took no time. Changes the earliest start of the steps, which
+	 * are restored at the end.
+	 */
+	private static double getLength(List<Step> steps, Step skippedStep) {
+		double[] earliestStarts = new double[steps.size()];
+
+		double length = 0;
+		for (int i = 0; i < steps.size(); i++) {
+			Step step = steps.get(i);
+			earliestStarts[i] = step.earliestStart;
+
+			step.earliestStart = getEarliestStart(step, skippedStep);
+			double duration = step == skippedStep ? 0 : step.getDuration();
+			length = Math.max(length, step.earliestStart + duration);
+		}
+
+		for (int i = 0; i < steps.size(); i++) {
+			steps.get(i).earliestStart = earliestStarts[i];
+		}
+
+		return length;
+	}
+
+	/**
+	 * Follows the dependencies that finish last, from the step that finishes last.
+	 */
+	private static List<Step> getCriticalPath(List<Step> steps) {
+		List<Step> path = new ArrayList<>();
+
+		Step current = null;
+		for (Step step : steps) {
+			if (current == null || step.earliestStart + step.getDuration() > current.earliestStart
+					+ current.getDuration()) {
+				current = step;
+			}
+		}
+
+		while (current != null) {
+			path.add(current);
+
+			Step next = null;
+			for (Step dependency : current.dependencies) {
+				if (next == null || dependency.earliestStart + dependency.getDuration() > next.earliestStart
+						+ next.getDuration()) {
+					next = dependency;
+				}
+			}
+			current = next;
+		}
+
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 *
+	 * @return the compile and test steps that ran, dependencies first
+	 */
+	public List<Step> getSteps() {
+		return steps;
+	}
+
+	/**
+	 *
+	 * @return the steps of the critical path, in the order they run
+	 */
+	public List<Step> getCriticalPath() {
+		return criticalPath;
+	}
+
+	/**
+	 *
+	 * @return the length of the critical path, in milliseconds
+	 */
+	public double getCriticalPathLength() {
+		if (criticalPath.isEmpty()) {
+			return 0;
+		}
+
+		Step last = criticalPath.get(criticalPath.size() - 1);
+		return last.earliestStart + last.getDuration();
+	}
+
+	/**
+	 *
+	 * @return the time from the start of the first target to the end of the last, in milliseconds
+	 */
+	public double getWallClockTime() {
+		return buildEndMillis - buildStartMillis;
+	}
+
+	/**
+	 *
+	 * @return the sum of the durations of the compile and test steps, in milliseconds
+	 */
+	public double getWork() {
+		double work = 0;
+		for (Step step : steps) {
+			work += step.getWork();
+		}
+
+		return work;
+	}
+
+	/**
+	 *
+	 * @return the time the cores were not compiling or running tests, in milliseconds
+	 */
+	public double getIdleCoreTime() {
+		return Math.max(0, cores * getWallClockTime() - getWork());
+	}
+
+	/**
+	 *
+	 * @return the text summary of the report
+	 */
+	public String getSummary() {
+		double wallClock = getWallClockTime();
+		double work = getWork();
+
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format(Locale.ROOT, "Wall-clock time: %.1f s%n", wallClock / 1000));
+		summary.append(String.format(Locale.ROOT, "Compilation and tests: %.1f s in %d steps, on %d cores%n",
+				work / 1000, steps.size(), cores));
+		summary.append(String.format(Locale.ROOT, "Idle core time: %.1f s (%.0f%% of %.1f core seconds)%n",
+				getIdleCoreTime() / 1000, percentage(getIdleCoreTime(), cores * wallClock),
+				cores * wallClock / 1000));
+		summary.append(String.format(Locale.ROOT, "Average parallelism: %.2f%n", wallClock > 0 ? work / wallClock
+				: 0));
+		summary.append(String.format(Locale.ROOT,
+				"Lower bound with %d cores: %.1f s (the longest of the critical path and the work per core)%n", cores,
+				Math.max(getCriticalPathLength(), work / cores) / 1000));
+
+		summary.append(String.format(Locale.ROOT, "%nCritical path: %.1f s (%.0f%% of the wall-clock time)%n",
+				getCriticalPathLength() / 1000, percentage(getCriticalPathLength(), wallClock)));
+		for (Step step : criticalPath) {
+			summary.append(String.format(Locale.ROOT, "  %-40s %8.1f s  (starts at %.1f s)%n", step.name,
+					step.getDuration() / 1000, step.earliestStart / 1000));
+		}
+
+		// Steps that make the build shorter, if they are faster or split
+		List<Step> savings = new ArrayList<>(criticalPath);
+		savings.removeIf(step -> step.saving < TOLERANCE);
+		Collections.sort(savings, (step1, step2) -> Double.compare(step2.saving, step1.saving));
+		summary.append(String.format(Locale.ROOT,
+				"%nSpeed up or split, to cut the critical path (saving if the step took no time):%n"));
+		for (Step step : savings.subList(0, Math.min(MAX_LISTED_STEPS, savings.size()))) {
+			summary.append(String.format(Locale.ROOT, "  %-40s up to %8.1f s%n", step.name, step.saving / 1000));
+		}
+
+		// Steps that become critical if they get a little slower
+		List<Step> nearCritical = new ArrayList<>(steps);
+		nearCritical.removeIf(Step::isCritical);
+		Collections.sort(nearCritical, (step1, step2) -> Double.compare(step1.getSlack(), step2.getSlack()));
+		summary.append(String.format(Locale.ROOT, "%nLeast slack outside the critical path:%n"));
+		for (Step step : nearCritical.subList(0, Math.min(MAX_LISTED_STEPS, nearCritical.size()))) {
+			summary.append(String.format(Locale.ROOT, "  %-40s %8.1f s%n", step.name, step.getSlack() / 1000));
+		}
+
+		return summary.toString();
+	}
+
+	private static double percentage(double value, double total) {
+		return total > 0 ? 100 * value / total : 0;
+	}
+
+	/**
+	 * Writes the text summary ({@value #SUMMARY_FILENAME}) and the slack of each step, as CSV ({@value #CSV_FILENAME}),
+	 * to the given folder.
+	 *
+	 * @param reportsFolder
+	 */
+	public void write(File reportsFolder) {
+		try {
+			Files.write(new File(reportsFolder, SUMMARY_FILENAME).toPath(),
+					getSummary().getBytes(StandardCharsets.UTF_8));
+
+			try (Writer writer = Files.newBufferedWriter(new File(reportsFolder, CSV_FILENAME).toPath(),
+					StandardCharsets.UTF_8)) {
+				writer.write("target,project,kind,start_ms,end_ms,work_ms,earliest_start_ms,latest_start_ms,slack_ms,"
+						+ "critical,saving_ms\n");
+
+				for (Step step : steps) {
+					writer.write(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%b,%.3f%n",
+							csvValue(step.name), csvValue(step.projectName), step.kind,
+							step.startMillis - buildStartMillis, step.endMillis - buildStartMillis, step.workMillis,
+							step.earliestStart, step.latestStart, step.getSlack(), step.isCritical(), step.saving));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write build report to folder '" + reportsFolder + "'", e);
+		}
+	}
+
+	private static String csvValue(String value) {
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1) {
+			return value;
+		}
+
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
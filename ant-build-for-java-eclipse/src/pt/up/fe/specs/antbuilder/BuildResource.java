@@ -22,10 +22,15 @@ import pt.up.fe.specs.library.interfaces.ResourceProvider;
 public enum BuildResource implements ResourceProvider {
 
 	COMPILE_TEMPLATE("compile.xml.template"),
+	COMPILE_PARALLEL_TEMPLATE("compile_parallel.xml.template"),
+	COMPILE_MERGED_TEMPLATE("compile_merged.xml.template"),
 	COPY_TEMPLATE("copy.xml.template"),
 	DELETE_TEMPLATE("delete.xml.template"),
 	JUNIT_TEMPLATE("junit.xml.template"),
-	MAIN_TEMPLATE("main.xml.template");
+	JUNIT_PARALLEL_TEMPLATE("junit_parallel.xml.template"),
+	JUNIT_SHARD_TEMPLATE("junit_shard.xml.template"),
+	MAIN_TEMPLATE("main.xml.template"),
+	UPTODATE_TEMPLATE("uptodate.xml.template");
 
 	private final static String RESOURCE_FOLDER = "build";
 
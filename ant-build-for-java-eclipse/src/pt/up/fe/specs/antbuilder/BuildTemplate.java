@@ -0,0 +1,246 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import pt.up.fe.specs.library.utilities.Replacer;
+
+/**
+ * A template split once into literal text and placeholders (e.g., "<PROJECT_NAME>"), which is rendered in a single
+ * pass, appending directly to the output.
+ *
+ * <p>
+ * Placeholders are upper-case names between '<' and '>', which do not clash with the lower-case ANT elements.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class BuildTemplate {
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("<[A-Z][A-Z0-9_]*>");
+
+	// Each resource is loaded and parsed only once
+	private static final Map<BuildResource, BuildTemplate> TEMPLATES = new EnumMap<>(BuildResource.class);
+
+	/**
+	 * Writes the value of a placeholder.
+	 */
+	public interface Slot {
+		void write(Appendable out, String placeholder) throws IOException;
+	}
+
+	private final String name;
+	private final String text;
+	// There is one more literal than slots, literals[i] comes before slots[i]
+	private final String[] literals;
+	private final int[] slots;
+	// Distinct placeholders, in the order they first appear
+	private final List<String> placeholders;
+	private final Map<String, Integer> indexes;
+
+	private BuildTemplate(String name, String text) {
+		this.name = name;
+		this.text = text;
+
+		List<String> literalsList = new ArrayList<>();
+		List<Integer> slotsList = new ArrayList<>();
+		this.placeholders = new ArrayList<>();
+		this.indexes = new HashMap<>();
+
+		Matcher matcher = PLACEHOLDER.matcher(text);
+		int index = 0;
+		while (matcher.find()) {
+			literalsList.add(text.substring(index, matcher.start()));
+
+			String placeholder = matcher.group();
+			Integer placeholderIndex = indexes.get(placeholder);
+			if (placeholderIndex == null) {
+				placeholderIndex = placeholders.size();
+				placeholders.add(placeholder);
+				indexes.put(placeholder, placeholderIndex);
+			}
+			slotsList.add(placeholderIndex);
+
+			index = matcher.end();
+		}
+		literalsList.add(text.substring(index));
+
+		this.literals = literalsList.toArray(new String[0]);
+		this.slots = new int[slotsList.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = slotsList.get(i);
+		}
+	}
+
+	/**
+	 *
+	 * @param resource
+	 * @return the parsed template of the given resource
+	 */
+	public static BuildTemplate get(BuildResource resource) {
+		synchronized (TEMPLATES) {
+			BuildTemplate template = TEMPLATES.get(resource);
+			if (template == null) {
+				template = parse(resource.getResource(), new Replacer(resource).toString());
+				TEMPLATES.put(resource, template);
+			}
+
+			return template;
+		}
+	}
+
+	/**
+	 *
+	 * @param name
+	 *            name of the template, used in error messages
+	 * @param text
+	 * @return
+	 */
+	public static BuildTemplate parse(String name, String text) {
+		return new BuildTemplate(name, text);
+	}
+
+	/**
+	 *
+	 * @return the text of the template, as it was parsed
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public List<String> getPlaceholders() {
+		return Collections.unmodifiableList(placeholders);
+	}
+
+	/**
+	 * Checks that the given placeholders are exactly the placeholders of the template.
+	 *
+	 * @param givenPlaceholders
+	 */
+	public void validate(Collection<String> givenPlaceholders) {
+		Set<String> unknown = new HashSet<>(givenPlaceholders);
+		unknown.removeAll(placeholders);
+		if (!unknown.isEmpty()) {
+			throw new RuntimeException("Template '" + name + "' does not have the placeholders " + unknown);
+		}
+
+		Set<String> missing = new HashSet<>(placeholders);
+		missing.removeAll(givenPlaceholders);
+		if (!missing.isEmpty()) {
+			throw new RuntimeException("Template '" + name + "' is missing values for the placeholders " + missing);
+		}
+	}
+
+	/**
+	 * Writes the template, asking the given slot for the value of each placeholder.
+	 *
+	 * @param out
+	 * @param slot
+	 * @throws IOException
+	 */
+	public void render(Appendable out, Slot slot) throws IOException {
+		for (int i = 0; i < slots.length; i++) {
+			out.append(literals[i]);
+			slot.write(out, placeholders.get(slots[i]));
+		}
+		out.append(literals[slots.length]);
+	}
+
+	public Renderer newRenderer() {
+		return new Renderer();
+	}
+
+	/**
+	 * The values of the placeholders of one rendering of the template.
+	 */
+	public class Renderer {
+		private final CharSequence[] values;
+
+		private Renderer() {
+			this.values = new CharSequence[placeholders.size()];
+		}
+
+		/**
+		 *
+		 * @param placeholder
+		 *            a placeholder of the template
+		 * @param value
+		 * @return this renderer
+		 */
+		public Renderer set(String placeholder, CharSequence value) {
+			Integer index = indexes.get(placeholder);
+			if (index == null) {
+				throw new RuntimeException("Template '" + name + "' does not have the placeholder " + placeholder);
+			}
+
+			values[index] = value;
+			return this;
+		}
+
+		/**
+		 * Writes the template with the values of the placeholders. All placeholders must have a value.
+		 *
+		 * @param out
+		 * @throws IOException
+		 */
+		public void render(Appendable out) throws IOException {
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] == null) {
+					throw new RuntimeException("Template '" + name + "' is missing a value for the placeholder "
+							+ placeholders.get(i));
+				}
+			}
+
+			for (int i = 0; i < slots.length; i++) {
+				out.append(literals[i]);
+				out.append(values[slots[i]]);
+			}
+			out.append(literals[slots.length]);
+		}
+
+		/**
+		 * Appends the template with the values of the placeholders to the given builder.
+		 *
+		 * @param builder
+		 */
+		public void appendTo(StringBuilder builder) {
+			try {
+				render(builder);
+			} catch (IOException e) {
+				// StringBuilder does not throw
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			appendTo(builder);
+
+			return builder.toString();
+		}
+	}
+}
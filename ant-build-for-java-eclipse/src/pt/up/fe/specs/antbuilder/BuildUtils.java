@@ -14,18 +14,28 @@
 package pt.up.fe.specs.antbuilder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import pt.up.fe.specs.antbuilder.classpath.ClasspathFiles;
 import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
 import pt.up.fe.specs.antbuilder.utilities.DeployUtils;
 import pt.up.fe.specs.library.IoUtils;
-import pt.up.fe.specs.library.utilities.Replacer;
+import pt.up.fe.specs.library.Log;
 
 public class BuildUtils {
 
 	// private static final String RESOURCES_FOLDER = "resources";
 
+	private static final String STAMP_FILENAME = ".antbuilder.stamp";
+	private static final String INPUTS_FILENAME = ".antbuilder.inputs";
+
 	/**
 	 * The target name, which is "build_<PROJECT_NAME>".
 	 * 
@@ -107,6 +117,440 @@ public class BuildUtils {
 		return builder.toString();
 	}
 
+	/**
+	 * The number of threads the generator uses, as set by {@link BuildProperty#THREADS}.
+	 * 
+	 * @return
+	 */
+	public static int getThreads() {
+		int threads = BuildProperty.THREADS.getInt();
+		if (threads > 0) {
+			return threads;
+		}
+
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * The number of cores the build ran on, as set by {@link BuildProperty#REPORT_CORES}.
+	 * 
+	 * @return
+	 */
+	public static int getReportCores() {
+		int cores = BuildProperty.REPORT_CORES.getInt();
+		if (cores > 0) {
+			return cores;
+		}
+
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * True if the 'compile' target should compile independent projects in parallel.
+	 * 
+	 * @return
+	 */
+	public static boolean isParallelCompile() {
+		return BuildProperty.COMPILE_THREADS.getInt() > 1;
+	}
+
+	/**
+	 * The name of the macro that compiles the project, which is "compile.<PROJECT_NAME>" with characters that are not
+	 * allowed in XML element names replaced by '_'. If a character was replaced, the hash of the original name is
+	 * appended (e.g., "compile.a_b.<HASH>" for project "a b"), so that it does not collide with project "a_b".
+	 * 
+	 * @param projectName
+	 * @return
+	 */
+	public static String getCompileMacroName(String projectName) {
+		return getMacroName("compile.", projectName);
+	}
+
+	/**
+	 * The name of the macro that runs a shard of the tests of the project, which is
+	 * "junit.<PROJECT_NAME>.<SHARD_INDEX>", with the same replacements as {@link #getCompileMacroName(String)}.
+	 * 
+	 * @param projectName
+	 * @param shardIndex
+	 * @return
+	 */
+	public static String getJUnitMacroName(String projectName, int shardIndex) {
+		return getMacroName("junit.", projectName) + "." + shardIndex;
+	}
+
+	private static String getMacroName(String prefix, String projectName) {
+		StringBuilder builder = new StringBuilder(prefix);
+
+		boolean replaced = false;
+		for (int i = 0; i < projectName.length(); i++) {
+			char c = projectName.charAt(i);
+			boolean isValid = Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+			builder.append(isValid ? c : '_');
+			replaced |= !isValid;
+		}
+
+		// String.hashCode() is the same in every JVM, names do not change between runs
+		if (replaced) {
+			builder.append('.').append(Integer.toHexString(projectName.hashCode()));
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Checks that the macros of different projects have different names (see {@link #getCompileMacroName(String)}).
+	 * 
+	 * @param projectNames
+	 */
+	public static void checkMacroNames(Collection<String> projectNames) {
+		Map<String, String> projectsByMacro = new HashMap<>();
+
+		for (String projectName : projectNames) {
+			String macroName = getCompileMacroName(projectName);
+			String previousProject = projectsByMacro.putIfAbsent(macroName, projectName);
+			if (previousProject != null) {
+				throw new RuntimeException("Projects '" + previousProject + "' and '" + projectName
+						+ "' have the same macro name '" + macroName + "', rename one of them");
+			}
+		}
+	}
+
+	/**
+	 * True if the projects should be compiled inside the generator, as set by {@link BuildProperty#ENGINE}.
+	 * 
+	 * @return
+	 */
+	public static boolean isInProcessBuild() {
+		String engine = BuildProperty.ENGINE.getValue().trim();
+
+		if (engine.equals("javac")) {
+			return true;
+		}
+
+		if (!engine.equals("ant")) {
+			Log.warn("Unknown value '" + engine + "' for property '" + BuildProperty.ENGINE.getKey()
+					+ "', generating build.xml");
+		}
+
+		return false;
+	}
+
+	/**
+	 * True if the build should stop when projects have cyclic dependencies, as set by {@link BuildProperty#CYCLES}.
+	 * 
+	 * @return
+	 */
+	public static boolean isFailOnCycles() {
+		return getCyclesMode().equals("fail");
+	}
+
+	/**
+	 * True if the projects of each dependency cycle should be compiled together, as set by
+	 * {@link BuildProperty#CYCLES}.
+	 * 
+	 * @return
+	 */
+	public static boolean isMergeCycles() {
+		return getCyclesMode().equals("merge");
+	}
+
+	private static String getCyclesMode() {
+		String mode = BuildProperty.CYCLES.getValue().trim();
+
+		if (!mode.equals("warn") && !mode.equals("fail") && !mode.equals("merge")) {
+			Log.warn("Unknown value '" + mode + "' for property '" + BuildProperty.CYCLES.getKey()
+					+ "', only reporting cycles");
+			return "warn";
+		}
+
+		return mode;
+	}
+
+	/**
+	 * The projects that are compiled together with the given project. The first project of the unit compiles the
+	 * sources of all of them, the others only depend on it.
+	 * 
+	 * @param projectName
+	 * @param compileUnits
+	 *            maps each project of a dependency cycle to the projects of the cycle
+	 * @return a list with only the given project, if it is not part of a merged cycle
+	 */
+	public static List<String> getCompileUnit(String projectName, Map<String, List<String>> compileUnits) {
+		List<String> unitProjects = compileUnits.get(projectName);
+		if (unitProjects == null) {
+			return Collections.singletonList(projectName);
+		}
+
+		return unitProjects;
+	}
+
+	/**
+	 * True if the 'junit' target should run the tests in forked JVMs, in parallel.
+	 * 
+	 * @return
+	 */
+	public static boolean isParallelJUnit() {
+		return BuildProperty.JUNIT_THREADS.getInt() > 1;
+	}
+
+	/**
+	 * Calls to the macros that run the given number of shards of the project, one per line.
+	 * 
+	 * @param projectName
+	 * @param numShards
+	 * @param prefix
+	 * @return
+	 */
+	public static String buildJUnitShardCalls(String projectName, int numShards, String prefix) {
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < numShards; i++) {
+			builder.append(prefix + "<" + getJUnitMacroName(projectName, i) + " />\n");
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Groups the projects in layers, where each project only depends on projects of previous layers. Projects in the
+	 * same layer can be compiled in parallel.
+	 * 
+	 * <p>
+	 * Dependencies to projects that are not in the given list are ignored.
+	 * 
+	 * @param projectNames
+	 * @param parser
+	 * @return
+	 */
+	public static List<List<String>> getCompileLayers(List<String> projectNames, ClasspathParser parser) {
+		return getCompileLayers(projectNames, parser, Collections.emptyMap());
+	}
+
+	/**
+	 * Same as {@link #getCompileLayers(List, ClasspathParser)}, but dependencies between projects of the same compile
+	 * unit are ignored, and all projects of a unit are in the same layer, after the dependencies of all of them.
+	 * 
+	 * @param projectNames
+	 * @param parser
+	 * @param compileUnits
+	 *            maps each project of a dependency cycle to the projects of the cycle
+	 * @return
+	 */
+	public static List<List<String>> getCompileLayers(List<String> projectNames, ClasspathParser parser,
+			Map<String, List<String>> compileUnits) {
+		Set<String> projects = new HashSet<>(projectNames);
+		Map<String, Integer> levels = new HashMap<>();
+
+		List<List<String>> layers = new ArrayList<>();
+		for (String projectName : projectNames) {
+			int level = getCompileLevel(projectName, projects, levels, new HashSet<>(), parser, compileUnits);
+
+			while (layers.size() <= level) {
+				layers.add(new ArrayList<>());
+			}
+
+			layers.get(level).add(projectName);
+		}
+
+		return layers;
+	}
+
+	/**
+	 * The length of the longest dependency chain that ends in the given project.
+	 */
+	private static int getCompileLevel(String projectName, Set<String> projects, Map<String, Integer> levels,
+			Set<String> visiting, ClasspathParser parser, Map<String, List<String>> compileUnits) {
+
+		Integer level = levels.get(projectName);
+		if (level != null) {
+			return level;
+		}
+
+		// Dependency cycle, break it here
+		if (!visiting.add(projectName)) {
+			return 0;
+		}
+
+		List<String> unitProjects = getCompileUnit(projectName, compileUnits);
+
+		// Projects of a compile unit are compiled together, after the dependencies of all of them
+		int maxParentLevel = -1;
+		for (String unitProject : unitProjects) {
+			for (String parent : parser.getClasspath(unitProject).getParentProjects()) {
+				if (!projects.contains(parent) || unitProjects.contains(parent)) {
+					continue;
+				}
+
+				maxParentLevel = Math.max(maxParentLevel,
+						getCompileLevel(parent, projects, levels, visiting, parser, compileUnits));
+			}
+		}
+
+		visiting.remove(projectName);
+
+		levels.put(projectName, maxParentLevel + 1);
+		return maxParentLevel + 1;
+	}
+
+	/**
+	 * A parallel block for each layer, which calls the compilation macros of the projects in the layer.
+	 * 
+	 * @param layers
+	 * @param threads
+	 * @return
+	 */
+	public static String buildCompileLayers(List<List<String>> layers, int threads) {
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < layers.size(); i++) {
+			List<String> layer = layers.get(i);
+
+			builder.append("<!-- Layer " + i + " (" + layer.size() + " projects) -->\n");
+			builder.append("\t\t<parallel threadCount=\"" + threads + "\" failonany=\"true\">\n");
+			for (String projectName : layer) {
+				builder.append("\t\t\t<" + getCompileMacroName(projectName) + " />\n");
+			}
+			builder.append("\t\t</parallel>\n\t\t");
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * True if the 'compile' target should skip projects that did not change since their last compilation.
+	 * 
+	 * @return
+	 */
+	public static boolean isIncrementalCompile() {
+		return BuildProperty.COMPILE_INCREMENTAL.getBoolean();
+	}
+
+	/**
+	 * The file in the bin folder of the project that is touched after each compilation, which is
+	 * "<BIN_FOLDER>/.antbuilder.stamp".
+	 * 
+	 * @param classpathFiles
+	 * @return
+	 */
+	public static File getStampFile(ClasspathFiles classpathFiles) {
+		return new File(getBinFolder(classpathFiles), STAMP_FILENAME);
+	}
+
+	/**
+	 * The file in the bin folder of the project that lists the source files and libraries of its last compilation,
+	 * which is "<BIN_FOLDER>/.antbuilder.inputs".
+	 * 
+	 * @param classpathFiles
+	 * @return
+	 */
+	public static File getInputsFile(ClasspathFiles classpathFiles) {
+		return new File(getBinFolder(classpathFiles), INPUTS_FILENAME);
+	}
+
+	private static String getInputsProperty(String projectName) {
+		return "inputs." + projectName;
+	}
+
+	/**
+	 * Checks if the project is up-to-date and opens a block that is only executed if it is not, which starts by
+	 * cleaning the bin folder. Must be followed by {@link #buildIncrementalEnd(ClasspathFiles)}.
+	 * 
+	 * <p>
+	 * The project is up-to-date if its stamp file is newer than all files in its source folders, its .classpath
+	 * file, its libraries, and the stamp files of the projects it depends on, and if the sorted list of its source
+	 * files and the list of its libraries, with their sizes, are the same as in its inputs file. The lists detect
+	 * deleted or moved sources, and libraries replaced by older ones, which do not make the stamp file older.
+	 * 
+	 * @param projectName
+	 * @param unitProjects
+	 *            the projects compiled together with the given project, including itself (see
+	 *            {@link #getCompileUnit(String, Map)})
+	 * @param parser
+	 * @return
+	 */
+	public static String buildIncrementalStart(String projectName, List<String> unitProjects,
+			ClasspathParser parser) {
+		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+
+		final String prefix = "					";
+		StringBuilder sources = new StringBuilder();
+		StringBuilder sourceFolders = new StringBuilder();
+
+		for (String unitProject : unitProjects) {
+			ClasspathFiles unitClasspath = parser.getClasspath(unitProject);
+
+			for (String source : unitClasspath.getSourceFolders()) {
+				File sourceFolder = new File(unitClasspath.getProjectFolder(), source);
+				String fileset = "<fileset dir=\"" + sourceFolder.getAbsolutePath() + "\"/>\n";
+				sources.append(prefix + fileset);
+				sourceFolders.append("				" + fileset);
+			}
+
+			File classpathFile = new File(unitClasspath.getProjectFolder(), ClasspathParser.FILENAME_CLASSPATH);
+			sources.append(prefix + getFileResource(classpathFile) + "\n");
+		}
+
+		// Projects of a compile unit depend on each other, the first project includes the libraries of all of them
+		String inputsProperty = getInputsProperty(projectName);
+		StringBuilder jarSizes = new StringBuilder();
+		if (classpathFiles.getJarFiles().isEmpty()) {
+			// Task 'length' fails without resources
+			jarSizes.append("<property name=\"" + inputsProperty + ".jars\" value=\"\"/>");
+		} else {
+			// In classpath order, each line is "<JAR> : <SIZE>"
+			jarSizes.append("<length property=\"" + inputsProperty + ".jars\" mode=\"each\">\n");
+			for (File jarFile : classpathFiles.getJarFiles()) {
+				sources.append(prefix + getFileResource(jarFile) + "\n");
+				jarSizes.append("		" + getFileResource(jarFile) + "\n");
+			}
+			jarSizes.append("	</length>");
+		}
+
+		// Stamps of projects that are not built do not exist, and are ignored by the check
+		for (String parent : classpathFiles.getParentProjects()) {
+			if (unitProjects.contains(parent)) {
+				continue;
+			}
+
+			sources.append(prefix + getFileResource(getStampFile(parser.getClasspath(parent))) + "\n");
+		}
+
+		BuildTemplate.Renderer cleanBin = BuildTemplate.get(BuildResource.DELETE_TEMPLATE).newRenderer();
+		cleanBin.set("<FOLDER>", getBinFolder(classpathFiles));
+
+		BuildTemplate.Renderer template = BuildTemplate.get(BuildResource.UPTODATE_TEMPLATE).newRenderer();
+		template.set("<PROJECT_NAME>", projectName);
+		template.set("<UPTODATE_PROPERTY>", "uptodate." + projectName);
+		template.set("<INPUTS_PROPERTY>", inputsProperty);
+		template.set("<INPUTS_FILE>", getInputsFile(classpathFiles).getAbsolutePath());
+		template.set("<SOURCE_FOLDERS>", sourceFolders);
+		template.set("<JAR_SIZES>", jarSizes);
+		template.set("<STAMP_FILE>", getStampFile(classpathFiles).getAbsolutePath());
+		template.set("<SOURCES>", sources);
+		template.set("<CLEAN_BIN>", cleanBin.toString());
+
+		return template.toString();
+	}
+
+	/**
+	 * Writes the inputs file, updates the stamp file of the project and closes the block opened by
+	 * {@link #buildIncrementalStart(String, List, ClasspathParser)}.
+	 * 
+	 * @param classpathFiles
+	 * @return
+	 */
+	public static String buildIncrementalEnd(ClasspathFiles classpathFiles) {
+		String inputsProperty = getInputsProperty(classpathFiles.getProjectName());
+
+		return "<echo file=\"" + getInputsFile(classpathFiles).getAbsolutePath() + "\" message=\"${" + inputsProperty
+				+ "}${line.separator}${" + inputsProperty + ".jars}\"/>\n\t<touch file=\""
+				+ getStampFile(classpathFiles).getAbsolutePath() + "\"/>\n\t</sequential>";
+	}
+
+	private static String getFileResource(File file) {
+		return "<file file=\"" + file.getAbsolutePath() + "\"/>";
+	}
+
 	public static File getOutputJar(String projectName) {
 		File outputFolder = getOutputJarFolder();
 		return new File(outputFolder, projectName + ".jar");
@@ -152,6 +596,35 @@ public class BuildUtils {
 		return fileset.toString();
 	}
 
+	/**
+	 * Same as {@link #buildFileset(String, ClasspathParser)}, but the JARs are a reference to the path with the JARs of
+	 * the project, defined once in build.xml.
+	 * 
+	 * @param projectName
+	 * @param parser
+	 * @param definitions
+	 * @return
+	 */
+	public static String buildFileset(String projectName, ClasspathParser parser, ClasspathDefinitions definitions) {
+		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+
+		final String prefix = "			";
+		StringBuilder fileset = new StringBuilder();
+
+		String jarsId = definitions.getJarsId(projectName);
+		if (!jarsId.isEmpty()) {
+			fileset.append(prefix + "<path refid=\"" + jarsId + "\" />\n");
+		}
+
+		for (String parent : classpathFiles.getParentProjects()) {
+			fileset.append(prefix);
+			fileset.append(DeployUtils.getPathElement(new File(getBinFolder(parser.getClasspath(parent)))));
+			fileset.append("\n");
+		}
+
+		return fileset.toString();
+	}
+
 	/**
 	 * Returns <project_folder>/bin
 	 * 
@@ -215,19 +688,19 @@ public class BuildUtils {
 		// "	    <fileset dir=\"<RESOURCE_FOLDER>\" includes=\"**/*\">\n" +
 		// "	</copy>";
 
+		BuildTemplate template = BuildTemplate.get(BuildResource.COPY_TEMPLATE);
 		StringBuilder builder = new StringBuilder();
 
 		for (String source : sources) {
 			// Create copy task
-			// Replacer replacer = new Replacer(template);
-			Replacer replacer = new Replacer(BuildResource.COPY_TEMPLATE);
+			BuildTemplate.Renderer copyTask = template.newRenderer();
 
 			File resourceFolder = new File(classpathFiles.getProjectFolder(), source);
 
-			replacer.replace("<BIN_FOLDER>", getBinFolder(classpathFiles));
-			replacer.replace("<RESOURCE_FOLDER>", resourceFolder.getAbsolutePath());
+			copyTask.set("<BIN_FOLDER>", getBinFolder(classpathFiles));
+			copyTask.set("<RESOURCE_FOLDER>", resourceFolder.getAbsolutePath());
 
-			builder.append(replacer.toString());
+			copyTask.appendTo(builder);
 		}
 
 		return builder.toString();
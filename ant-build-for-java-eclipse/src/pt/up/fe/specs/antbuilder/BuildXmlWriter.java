@@ -0,0 +1,171 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes a build file section by section, without keeping the whole contents in memory.
+ *
+ * <p>
+ * Contents are written to a temporary file. When committed, the temporary file replaces the build file, unless the
+ * build file already has the same contents, in which case it is not touched.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class BuildXmlWriter implements Closeable {
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Writes the contents of a placeholder.
+	 */
+	public interface Section {
+		void write(Writer writer) throws IOException;
+	}
+
+	private final File buildFile;
+	private final File tempFile;
+	private final MessageDigest digest;
+	private final Writer writer;
+
+	private boolean closed;
+
+	public BuildXmlWriter(File buildFile) {
+		this.buildFile = buildFile;
+		this.tempFile = new File(buildFile.getPath() + ".tmp");
+		this.digest = newDigest();
+
+		try {
+			this.writer = new BufferedWriter(new OutputStreamWriter(
+					new DigestOutputStream(new FileOutputStream(tempFile), digest), StandardCharsets.UTF_8),
+					BUFFER_SIZE);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not create file '" + tempFile + "'", e);
+		}
+
+		this.closed = false;
+	}
+
+	/**
+	 * Writes the template, calling the corresponding section for each placeholder of the template.
+	 *
+	 * @param template
+	 * @param sections
+	 *            maps a placeholder (e.g., "<CLEAN>") to the section that writes its contents, there must be a section
+	 *            for each placeholder of the template
+	 */
+	public void write(BuildTemplate template, Map<String, Section> sections) {
+		// Fail before writing anything
+		template.validate(sections.keySet());
+
+		try {
+			template.render(writer, (out, placeholder) -> sections.get(placeholder).write(writer));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write to file '" + tempFile + "'", e);
+		}
+	}
+
+	/**
+	 * Replaces the build file with the written contents.
+	 *
+	 * @return true if the build file was written, false if it already had the same contents
+	 */
+	public boolean commit() {
+		close();
+
+		byte[] hash = digest.digest();
+
+		try {
+			if (buildFile.isFile() && buildFile.length() == tempFile.length()
+					&& Arrays.equals(hash, hash(buildFile))) {
+
+				Files.delete(tempFile.toPath());
+				return false;
+			}
+
+			Files.move(tempFile.toPath(), buildFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not replace file '" + buildFile + "'", e);
+		}
+	}
+
+	/**
+	 * Closes the temporary file, without deleting it. Use {@link #discard()} to delete the temporary file when the
+	 * contents are not committed.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		try {
+			writer.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close file '" + tempFile + "'", e);
+		}
+	}
+
+	/**
+	 * Closes and deletes the temporary file, leaving the build file untouched.
+	 */
+	public void discard() {
+		close();
+		tempFile.delete();
+	}
+
+	private static byte[] hash(File file) throws IOException {
+		MessageDigest fileDigest = newDigest();
+
+		try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				fileDigest.update(buffer, 0, read);
+			}
+		}
+
+		return fileDigest.digest();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Could not find hash algorithm '" + HASH_ALGORITHM + "'", e);
+		}
+	}
+}
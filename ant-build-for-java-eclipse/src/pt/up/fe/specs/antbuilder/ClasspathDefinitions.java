@@ -0,0 +1,223 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+import pt.up.fe.specs.antbuilder.classpath.ProjectClasspath;
+import pt.up.fe.specs.antbuilder.utilities.DeployUtils;
+import pt.up.fe.specs.library.Log;
+
+/**
+ * The JARs of the classpaths of the projects, as paths that are defined once in build.xml and referenced by id.
+ *
+ * <p>
+ * Each group of JARs in a .classpath file (e.g., a user library, or a JAR of a project) is a path with the JARs of the
+ * group. The JARs of a project are a path that references the groups of the project and of its dependencies, in the
+ * order they are found when building the closure of the project. Ant removes repeated JARs keeping the first, which
+ * gives the same JARs, in the same order, as the closure.
+ *
+ * <p>
+ * Ids are a hash of the contents of the path, so that the same contents get the same id in every run, and projects
+ * with the same JARs share the same path.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class ClasspathDefinitions {
+
+	private static final String GROUP_PREFIX = "lib.";
+	private static final String JARS_PREFIX = "jars.";
+
+	// Enough to make collisions unlikely, while keeping ids short
+	private static final int ID_LENGTH = 16;
+
+	private final ClasspathParser parser;
+
+	// Definitions in the order they were first found
+	private final Map<String, List<File>> groups;
+	private final Map<String, List<String>> jarSets;
+
+	// Empty string if the project has no JARs
+	private final Map<String, String> projectJarsIds;
+
+	private ClasspathDefinitions(ClasspathParser parser) {
+		this.parser = parser;
+		this.groups = new LinkedHashMap<>();
+		this.jarSets = new LinkedHashMap<>();
+		this.projectJarsIds = new HashMap<>();
+	}
+
+	/**
+	 * Builds the definitions needed by the given projects.
+	 *
+	 * @param projectNames
+	 * @param parser
+	 * @return
+	 */
+	public static ClasspathDefinitions newInstance(Collection<String> projectNames, ClasspathParser parser) {
+		ClasspathDefinitions definitions = new ClasspathDefinitions(parser);
+
+		for (String projectName : projectNames) {
+			definitions.getJarsId(projectName);
+		}
+
+		return definitions;
+	}
+
+	/**
+	 * The id of the path with the JARs of the given project.
+	 *
+	 * @param projectName
+	 * @return the id of the path, or an empty string if the project does not use JARs
+	 */
+	public String getJarsId(String projectName) {
+		String jarsId = projectJarsIds.get(projectName);
+		if (jarsId == null) {
+			jarsId = buildJarsId(projectName);
+			projectJarsIds.put(projectName, jarsId);
+		}
+
+		return jarsId;
+	}
+
+	private String buildJarsId(String projectName) {
+		Set<String> foundGroupIds = new LinkedHashSet<>();
+		collectGroups(projectName, new HashSet<>(), foundGroupIds);
+		List<String> groupIds = new ArrayList<>(foundGroupIds);
+
+		// Should not happen, but the classpath of the project is what must be in build.xml
+		List<File> jars = parser.getClasspath(projectName).getJarFiles();
+		if (!getJars(groupIds).equals(jars)) {
+			Log.warn("JARs of the groups of project '" + projectName
+					+ "' do not match its classpath, using its JARs as a single group");
+
+			groupIds.clear();
+			if (!jars.isEmpty()) {
+				groupIds.add(addGroup(jars));
+			}
+		}
+
+		if (groupIds.isEmpty()) {
+			return "";
+		}
+
+		// A single group does not need a path of its own
+		if (groupIds.size() == 1) {
+			return groupIds.get(0);
+		}
+
+		String jarsId = JARS_PREFIX + getHash(groupIds);
+		jarSets.putIfAbsent(jarsId, groupIds);
+
+		return jarsId;
+	}
+
+	/**
+	 * Visits the entries of the project as when building its closure (see
+	 * {@link pt.up.fe.specs.antbuilder.classpath.ProjectGraph}), adding the ids of the groups of JARs.
+	 */
+	private void collectGroups(String projectName, Set<String> visited, Set<String> groupIds) {
+		visited.add(projectName);
+
+		for (ProjectClasspath.Entry entry : parser.getProjectClasspath(projectName).getEntries()) {
+			switch (entry.getKind()) {
+			case JARS:
+				if (!entry.getJars().isEmpty()) {
+					groupIds.add(addGroup(entry.getJars()));
+				}
+				break;
+			case PROJECT:
+				if (!visited.contains(entry.getProject())) {
+					collectGroups(entry.getProject(), visited, groupIds);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private String addGroup(List<File> jars) {
+		List<String> paths = new ArrayList<>(jars.size());
+		for (File jar : jars) {
+			paths.add(jar.getPath());
+		}
+
+		String groupId = GROUP_PREFIX + getHash(paths);
+		groups.putIfAbsent(groupId, jars);
+
+		return groupId;
+	}
+
+	/**
+	 * The JARs of the given groups, without repetitions, in the order Ant resolves them.
+	 */
+	private List<File> getJars(List<String> groupIds) {
+		Set<File> jars = new LinkedHashSet<>();
+		for (String groupId : groupIds) {
+			jars.addAll(groups.get(groupId));
+		}
+
+		return new ArrayList<>(jars);
+	}
+
+	private static String getHash(List<String> inputs) {
+		return BuildManifest.hash(inputs).substring(0, ID_LENGTH);
+	}
+
+	/**
+	 *
+	 * @return the number of paths that are defined
+	 */
+	public int getNumDefinitions() {
+		return groups.size() + jarSets.size();
+	}
+
+	/**
+	 * Writes the definitions of the groups of JARs, and of the JARs of the projects.
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void write(Writer writer) throws IOException {
+		for (Map.Entry<String, List<File>> group : groups.entrySet()) {
+			writer.write("<path id=\"" + group.getKey() + "\">\n");
+			for (File jar : group.getValue()) {
+				writer.write("\t\t" + DeployUtils.getZipfileset(jar) + "\n");
+			}
+			writer.write("\t</path>\n\t");
+		}
+
+		for (Map.Entry<String, List<String>> jarSet : jarSets.entrySet()) {
+			writer.write("<path id=\"" + jarSet.getKey() + "\">\n");
+			for (String groupId : jarSet.getValue()) {
+				writer.write("\t\t<path refid=\"" + groupId + "\" />\n");
+			}
+			writer.write("\t</path>\n\t");
+		}
+	}
+}
@@ -17,18 +17,28 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+import pt.up.fe.specs.antbuilder.JUnitShards.TestFile;
 import pt.up.fe.specs.antbuilder.classpath.ClasspathFiles;
 import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+import pt.up.fe.specs.antbuilder.engine.BuildScheduler;
+import pt.up.fe.specs.antbuilder.utilities.FileCache;
+import pt.up.fe.specs.antbuilder.utilities.MetadataCache;
+import pt.up.fe.specs.antbuilder.utilities.MetricsListener;
+import pt.up.fe.specs.antbuilder.utilities.Phase;
+import pt.up.fe.specs.antbuilder.utilities.PhaseTimer;
 import pt.up.fe.specs.library.IoUtils;
 import pt.up.fe.specs.library.Log;
 import pt.up.fe.specs.library.utilities.LineReader;
-import pt.up.fe.specs.library.utilities.Replacer;
 
 /**
  * @author Joao Bispo
@@ -43,11 +53,18 @@ public class CreateBuildXml {
 	private final File repFolder;
 	private final ClasspathParser parser;
 	private final Set<String> projectsToIgnore;
+	private final Map<String, List<List<TestFile>>> junitShards;
+	private final Map<String, List<String>> compileUnits;
+	private TestHistory testHistory;
+	private ClasspathDefinitions classpathDefinitions;
 
 	public CreateBuildXml(File repFolder, ClasspathParser parser, Collection<String> ignoreList) {
 		this.repFolder = IoUtils.getCanonicalFile(repFolder);
 		this.parser = parser;
 		this.projectsToIgnore = new HashSet<>(ignoreList);
+		this.junitShards = new HashMap<>();
+		this.compileUnits = new HashMap<>();
+		this.testHistory = TestHistory.newInstance();
 	}
 
 	public static void main(String args[]) {
@@ -74,14 +91,32 @@ public class CreateBuildXml {
 			userLibrariesFile = Optional.of(IoUtils.existingFile(args[1]));
 		}
 
+		// Reuse metadata files parsed in previous runs
+		MetadataCache cache = BuildProperty.CACHE.getBoolean()
+				? MetadataCache.newInstance(new File(repFolder, MetadataCache.DEFAULT_FILENAME))
+				: MetadataCache.newTransient();
+
 		// File userLibrariesFile = IoUtils.existingFile(repFolder, args[1]);
-		ClasspathParser parser = ClasspathParser.newInstance(repFolder, userLibrariesFile);
+		ClasspathParser parser = ClasspathParser.newInstance(repFolder, userLibrariesFile, cache);
 
-		CreateBuildXml buildXml = new CreateBuildXml(repFolder, parser, getIgnoreList());
-		buildXml.execute();
+		try {
+			CreateBuildXml buildXml = new CreateBuildXml(repFolder, parser, getIgnoreList());
+			if (BuildUtils.isInProcessBuild()) {
+				buildXml.compile();
+			} else {
+				buildXml.execute();
+			}
+
+			cache.save();
+		} finally {
+			if (BuildProperty.TIMING.getBoolean()) {
+				Phase.logSummary();
+				FileCache.logSummary();
+			}
+		}
 	}
 
-	private static List<String> getIgnoreList() {
+	static List<String> getIgnoreList() {
 		File ignoreFile = new File(IGNORE_FILE_PROJECTS);
 		// If files does not exists, return empty list
 		if (!ignoreFile.isFile()) {
@@ -120,77 +155,376 @@ public class CreateBuildXml {
 		// List<String> antTargets = getTargets(jtestFiles);
 	}
 
-	private void buildProjects() {
+	/**
+	 * Builds all projects inside this JVM, instead of generating build.xml.
+	 */
+	public void compile() {
+		File historyFile = new File(repFolder, BuildScheduler.HISTORY_FILENAME);
+		TestHistory history = TestHistory.read(historyFile);
+
+		// Clean reports
+		IoUtils.deleteFolderContents(getReportsFolder());
 
 		List<String> projectNames = getProjectNames();
+		checkCycles(projectNames);
 
-		// Build clean
-		String clean = buildClean(projectNames);
+		BuildScheduler scheduler = new BuildScheduler(parser, BuildUtils.getThreads(), history,
+				getJUnitClasspath(), getReportsFolder(), compileUnits);
+		boolean success = scheduler.run(projectNames);
 
-		// Build compilation targets
-		StringBuilder compileTargets = new StringBuilder();
-		for (String projectName : projectNames) {
-			// Check if project is in ignore list
+		history.write(historyFile);
 
-			String compileTarget = buildCompileTarget(projectName);
-			compileTargets.append(compileTarget);
-			compileTargets.append("\n");
+		if (!success) {
+			throw new RuntimeException("Build failed, check the messages above");
 		}
+	}
 
-		// Build junit targets
-		StringBuilder junitTargets = new StringBuilder();
-		for (String projectName : projectNames) {
-			String junitTarget = buildJUnitTarget(projectName);
-			junitTargets.append(junitTarget);
-			junitTargets.append("\n");
+	/**
+	 * Writes the critical path, idle core time and slack of the last build, from the ANT metrics in the reports folder
+	 * (see {@link BuildReport}).
+	 */
+	public void report() {
+		File csvFile = new File(getReportsFolder(), MetricsListener.CSV_FILENAME);
+		if (!csvFile.isFile()) {
+			throw new RuntimeException("Could not find the ANT metrics of the last build ('" + csvFile
+					+ "'), run build.xml with the listener " + MetricsListener.class.getName());
 		}
 
-		Replacer antBuild = new Replacer(BuildResource.MAIN_TEMPLATE);
+		BuildReport report = BuildReport.newInstance(getProjectNames(), parser, MetricsListener.readCsv(csvFile),
+				BuildUtils.getReportCores());
+		report.write(getReportsFolder());
 
-		antBuild.replace("<CLEAN>", clean);
-		antBuild.replace("<ALL_COMPILE_TARGETS>", BuildUtils.getDependenciesSuffix(projectNames));
-		antBuild.replace("<COMPILE_TARGETS>", compileTargets.toString());
+		Log.info("Build report:\n" + report.getSummary());
+		Log.info("Build report written to folder '" + getReportsFolder() + "'");
+	}
 
-		antBuild.replace("<ALL_JUNIT_TARGETS>", BuildUtils.getJUnitTargetDependencies(projectNames));
-		antBuild.replace("<JUNIT_TARGETS>", junitTargets.toString());
+	private static List<File> getJUnitClasspath() {
+		List<File> classpath = new ArrayList<>();
+
+		for (String jar : BuildProperty.JUNIT_CLASSPATH.getValue().split(File.pathSeparator)) {
+			if (jar.trim().isEmpty()) {
+				continue;
+			}
+
+			classpath.add(new File(jar.trim()));
+		}
+
+		return classpath;
+	}
+
+	private void buildProjects() {
+
+		List<String> projectNames = getProjectNames();
+
+		// Ant would only report cycles between depends attributes when running the build
+		checkCycles(projectNames);
+		BuildUtils.checkMacroNames(projectNames);
+
+		// Collect the duration of the tests, before the reports of the previous run are deleted
+		if (BuildUtils.isParallelJUnit()) {
+			File historyFile = new File(repFolder, TestHistory.DEFAULT_FILENAME);
+			testHistory = TestHistory.read(historyFile);
+			int reports = testHistory.update(getReportsFolder());
+			Log.info("Read " + reports + " test reports, test history has " + testHistory.getDurations().size()
+					+ " test classes");
+			testHistory.write(historyFile);
+		}
+
+		// Clean reports
+		IoUtils.deleteFolderContents(getReportsFolder());
+
+		// JARs are defined once, and referenced by the classpath of each project
+		classpathDefinitions = ClasspathDefinitions.newInstance(projectNames, parser);
+		Log.info("Defined " + classpathDefinitions.getNumDefinitions() + " shared classpaths");
+
+		// In incremental mode, reuse the fragments of projects whose inputs did not change
+		BuildManifest manifest = BuildProperty.INCREMENTAL.getBoolean() ? renderFragments(projectNames) : null;
+
+		// In incremental compile mode, projects are only cleaned when they need to be compiled again
+		List<String> compileDependencies = new ArrayList<>();
+		if (!BuildUtils.isIncrementalCompile()) {
+			compileDependencies.add("clean");
+		}
+
+		String compileLayers;
+		if (BuildUtils.isParallelCompile()) {
+			// Compile target calls the projects layer by layer, instead of depending on them
+			List<List<String>> layers = BuildUtils.getCompileLayers(projectNames, parser, compileUnits);
+			Log.info("Compiling " + projectNames.size() + " projects in " + layers.size() + " parallel layers");
+
+			compileLayers = BuildUtils.buildCompileLayers(layers, BuildProperty.COMPILE_THREADS.getInt());
+		} else {
+			for (String projectName : projectNames) {
+				compileDependencies.add(BuildUtils.getCompileTargetName(projectName));
+			}
+			compileLayers = "";
+		}
+
+		// Fragments are written as they are rendered, instead of being kept in memory
+		Map<String, BuildXmlWriter.Section> sections = new HashMap<>();
+
+		sections.put("<CLASSPATHS>", classpathDefinitions::write);
+		sections.put("<CLEAN>", writer -> {
+			for (String projectName : projectNames) {
+				try (PhaseTimer timer = Phase.RENDERING.start(projectName)) {
+					timer.setCount(1);
+					if (manifest != null) {
+						writer.write(manifest.get(projectName).getClean());
+					} else {
+						buildClean(projectName).render(writer);
+					}
+					writer.write("\n");
+				}
+			}
+		});
+		sections.put("<COMPILE_DEPENDENCIES>", writer -> writer.write(String.join(",", compileDependencies)));
+		sections.put("<COMPILE_LAYERS>", writer -> writer.write(compileLayers));
+		sections.put("<COMPILE_TARGETS>", writer -> {
+			for (String projectName : projectNames) {
+				try (PhaseTimer timer = Phase.RENDERING.start(projectName)) {
+					timer.setCount(1);
+					if (manifest != null) {
+						writer.write(manifest.get(projectName).getCompile());
+					} else {
+						buildCompileTarget(projectName).render(writer);
+					}
+					writer.write("\n");
+				}
+			}
+		});
+
+		if (BuildUtils.isParallelJUnit()) {
+			// Junit target runs the shards of all projects at the same time, instead of depending on them
+			sections.put("<ALL_JUNIT_TARGETS>", writer -> {
+			});
+			sections.put("<JUNIT_PARALLEL>", writer -> {
+				writer.write("<parallel threadCount=\"" + BuildProperty.JUNIT_THREADS.getInt() + "\">\n");
+				for (String projectName : projectNames) {
+					writer.write(BuildUtils.buildJUnitShardCalls(projectName, getJUnitShards(projectName).size(),
+							"\t\t\t"));
+				}
+				writer.write("\t\t</parallel>");
+			});
+		} else {
+			sections.put("<ALL_JUNIT_TARGETS>",
+					writer -> writer.write(BuildUtils.getJUnitTargetDependencies(projectNames)));
+			sections.put("<JUNIT_PARALLEL>", writer -> {
+			});
+		}
+		sections.put("<JUNIT_TARGETS>", writer -> {
+			for (String projectName : projectNames) {
+				try (PhaseTimer timer = Phase.RENDERING.start(projectName)) {
+					timer.setCount(1);
+					if (manifest != null) {
+						writer.write(manifest.get(projectName).getJUnit());
+					} else {
+						buildJUnitTarget(projectName).render(writer);
+					}
+					writer.write("\n");
+				}
+			}
+		});
 
 		// Save script
 		File buildFile = new File(repFolder, "build.xml");
+		BuildXmlWriter buildXml = new BuildXmlWriter(buildFile);
+		boolean written;
+		try {
+			buildXml.write(BuildTemplate.get(BuildResource.MAIN_TEMPLATE), sections);
+
+			try (PhaseTimer timer = Phase.WRITE.start()) {
+				written = buildXml.commit();
+				timer.setCount(buildFile.length());
+			}
+		} finally {
+			buildXml.discard();
+		}
+
+		// The file is not touched if it did not change
+		if (!written) {
+			Log.info("ANT Build file is up-to-date (" + buildFile + ")");
+			return;
+		}
 
-		IoUtils.write(antBuild.toString(), buildFile);
 		Log.info("ANT Build file written (" + buildFile + ")");
 
 	}
 
-	private String buildClean(List<String> projectNames) {
-		if (projectNames.isEmpty()) {
-			return "";
+	/**
+	 * Renders the fragments of the projects whose inputs changed since the previous run, and reuses the others.
+	 * 
+	 * @param projectNames
+	 * @return the manifest with the fragments of all given projects, which is also saved for the next run
+	 */
+	private BuildManifest renderFragments(List<String> projectNames) {
+		File manifestFile = new File(repFolder, BuildManifest.DEFAULT_FILENAME);
+		BuildManifest previousManifest = BuildManifest.read(manifestFile);
+		BuildManifest manifest = BuildManifest.newInstance();
+
+		int renderedProjects = 0;
+		for (String projectName : projectNames) {
+			String fingerprint = getFingerprint(projectName);
+
+			BuildManifest.Fragments fragments = previousManifest.get(projectName, fingerprint);
+			if (fragments == null) {
+				try (PhaseTimer timer = Phase.RENDERING.start(projectName)) {
+					fragments = new BuildManifest.Fragments(fingerprint, buildCompileTarget(projectName).toString(),
+							buildJUnitTarget(projectName).toString(), buildClean(projectName).toString());
+					timer.setCount(3);
+				}
+				renderedProjects++;
+			}
+
+			manifest.put(projectName, fragments);
 		}
 
-		StringBuilder builder = new StringBuilder();
+		Log.info("Rendered " + renderedProjects + " of " + projectNames.size() + " projects");
+		manifest.write(manifestFile);
 
-		for (String projectName : projectNames) {
-			Replacer template = new Replacer(BuildResource.DELETE_TEMPLATE);
-			template.replace("<FOLDER>", BuildUtils.getBinFolder(parser.getClasspath(projectName)));
-			builder.append(template.toString()).append("\n");
+		return manifest;
+	}
+
+	private BuildTemplate.Renderer buildClean(String projectName) {
+		return BuildTemplate.get(BuildResource.DELETE_TEMPLATE).newRenderer()
+				.set("<FOLDER>", BuildUtils.getBinFolder(parser.getClasspath(projectName)));
+	}
+
+	/**
+	 * Reports the dependency cycles between the given projects. Depending on {@link BuildProperty#CYCLES}, stops, or
+	 * merges the projects of each cycle into a compile unit.
+	 * 
+	 * @param projectNames
+	 */
+	private void checkCycles(List<String> projectNames) {
+		List<List<String>> cycles = parser.getGraph().getCycles(projectNames);
+		if (cycles.isEmpty()) {
+			return;
+		}
+
+		for (List<String> cycle : cycles) {
+			Log.warn("Found dependency cycle: " + String.join(" -> ", parser.getGraph().getCyclePath(cycle)));
 		}
 
-		return builder.toString();
+		if (BuildUtils.isFailOnCycles()) {
+			throw new RuntimeException("Found " + cycles.size() + " dependency cycles, check the messages above");
+		}
+
+		if (!BuildUtils.isMergeCycles()) {
+			// The in-process build would break each cycle at an arbitrary project, which then fails to compile
+			if (BuildUtils.isInProcessBuild()) {
+				throw new RuntimeException("Found " + cycles.size() + " dependency cycles, building in-process needs '"
+						+ BuildProperty.CYCLES.getKey() + "' to be 'merge'");
+			}
+
+			return;
+		}
+
+		for (List<String> cycle : cycles) {
+			if (BuildUtils.isInProcessBuild()) {
+				Log.info("Compiling projects " + cycle + " together, in a single compilation");
+			} else {
+				Log.info("Compiling projects " + cycle + " together, in target '"
+						+ BuildUtils.getCompileTargetName(cycle.get(0)) + "'");
+			}
+
+			for (String projectName : cycle) {
+				compileUnits.put(projectName, cycle);
+			}
+		}
+	}
+
+	private File getReportsFolder() {
+		return IoUtils.getFolder(repFolder, "reports");
+	}
+
+	/**
+	 * A hash of the inputs used to render the fragments of the given project.
+	 * 
+	 * @param projectName
+	 * @return
+	 */
+	private String getFingerprint(String projectName) {
+		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+
+		List<String> inputs = new ArrayList<>();
+		inputs.add(projectName);
+		inputs.add(classpathFiles.getProjectFolder().getAbsolutePath());
+		inputs.add(getReportsFolder().getAbsolutePath());
+		inputs.add(BuildUtils.getOutputJar(projectName).getAbsolutePath());
+		inputs.add("parallel=" + BuildUtils.isParallelCompile());
+		inputs.add("incrementalCompile=" + BuildUtils.isIncrementalCompile());
+		inputs.add("parallelJUnit=" + BuildUtils.isParallelJUnit());
+		inputs.addAll(classpathFiles.getSourceFolders());
+
+		// The first project of a compile unit renders the sources and .classpath files of all projects in the unit
+		inputs.add("compileUnit");
+		for (String unitProject : BuildUtils.getCompileUnit(projectName, compileUnits)) {
+			ClasspathFiles unitClasspath = parser.getClasspath(unitProject);
+
+			inputs.add(unitProject);
+			inputs.add(unitClasspath.getProjectFolder().getAbsolutePath());
+			inputs.add(new File(unitClasspath.getProjectFolder(), ClasspathParser.FILENAME_CLASSPATH)
+					.getAbsolutePath());
+			inputs.add("sources");
+			inputs.addAll(unitClasspath.getSourceFolders());
+		}
+
+		inputs.add("jars=" + classpathDefinitions.getJarsId(projectName));
+		for (File jarFile : classpathFiles.getJarFiles()) {
+			inputs.add(jarFile.getAbsolutePath());
+		}
+
+		inputs.add("projects");
+		for (String parent : classpathFiles.getParentProjects()) {
+			inputs.add(parent);
+			inputs.add(BuildUtils.getBinFolder(parser.getClasspath(parent)));
+		}
+
+		if (BuildUtils.isParallelJUnit()) {
+			inputs.add("junitThreads=" + BuildProperty.JUNIT_THREADS.getInt());
+			for (List<TestFile> shard : getJUnitShards(projectName)) {
+				inputs.add("shard");
+				for (TestFile testFile : shard) {
+					inputs.add(testFile.getSourceFolder().getAbsolutePath());
+					inputs.add(testFile.getPath());
+				}
+			}
+		}
+
+		return BuildManifest.hash(inputs);
+	}
+
+	/**
+	 * The test classes of the project, split in the number of shards set by {@link BuildProperty#JUNIT_SHARDS},
+	 * balanced by the durations in the test history.
+	 * 
+	 * @param projectName
+	 * @return
+	 */
+	private List<List<TestFile>> getJUnitShards(String projectName) {
+		List<List<TestFile>> shards = junitShards.get(projectName);
+		if (shards == null) {
+			List<TestFile> testFiles = JUnitShards.getTestFiles(parser.getClasspath(projectName));
+			shards = JUnitShards.split(testFiles, BuildProperty.JUNIT_SHARDS.getInt(), testHistory.getDurations());
+			junitShards.put(projectName, shards);
+		}
+
+		return shards;
 	}
 
-	private String buildJUnitTarget(String projectName) {
+	private BuildTemplate.Renderer buildJUnitTarget(String projectName) {
+		if (BuildUtils.isParallelJUnit()) {
+			return buildParallelJUnitTarget(projectName);
+		}
+
 		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
 
 		String targetName = BuildUtils.getJUnitTargetName(projectName);
-		String testsFolder = classpathFiles.getProjectFolder().getAbsolutePath();
 		String binFoldername = BuildUtils.getBinFolder(classpathFiles);
-		String fileset = BuildUtils.buildFileset(projectName, parser);
+		String fileset = BuildUtils.buildFileset(projectName, parser, classpathDefinitions);
 		String junitSourceFolders = BuildUtils.buildJUnitSources(classpathFiles);
 
-		File reportsFolder = IoUtils.getFolder(repFolder, "reports");
-
-		// Clean reports
-		IoUtils.deleteFolderContents(reportsFolder);
+		File reportsFolder = getReportsFolder();
 
 		String reportsDir = reportsFolder.getAbsolutePath();
 		/*
@@ -202,15 +536,14 @@ public class CreateBuildXml {
 		String sourcePath = BuildUtils.getSourcePath(classpathFiles);
 		*/
 
-		Replacer projectBuild = new Replacer(BuildResource.JUNIT_TEMPLATE);
+		BuildTemplate.Renderer projectBuild = BuildTemplate.get(BuildResource.JUNIT_TEMPLATE).newRenderer();
 
-		projectBuild.replace("<JUNIT_TARGET_NAME>", targetName);
-		projectBuild.replace("<PROJECT_NAME>", projectName);
-		projectBuild.replace("<TESTS_FOLDER>", testsFolder);
-		projectBuild.replace("<FILESET>", fileset);
-		projectBuild.replace("<BIN_FOLDER>", binFoldername);
-		projectBuild.replace("<SOURCE_FOLDERS>", junitSourceFolders);
-		projectBuild.replace("<REPORT_DIR>", reportsDir);
+		projectBuild.set("<JUNIT_TARGET_NAME>", targetName);
+		projectBuild.set("<PROJECT_NAME>", projectName);
+		projectBuild.set("<FILESET>", fileset);
+		projectBuild.set("<BIN_FOLDER>", binFoldername);
+		projectBuild.set("<SOURCE_FOLDERS>", junitSourceFolders);
+		projectBuild.set("<REPORT_DIR>", reportsDir);
 		/*
 		projectBuild.replace("<COMPILE_TARGET_NAME>", targetName);
 		projectBuild.replace("<PROJECT_DEPENDENCIES>", projectDependencies);
@@ -221,26 +554,71 @@ public class CreateBuildXml {
 		projectBuild.replace("<SOURCE_PATH>", sourcePath);
 		*/
 
-		return projectBuild.toString();
+		return projectBuild;
+	}
+
+	/**
+	 * Junit target where each shard of the tests runs in a forked JVM, writing the reports to a folder of the project.
+	 * 
+	 * @param projectName
+	 * @return
+	 */
+	private BuildTemplate.Renderer buildParallelJUnitTarget(String projectName) {
+		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+		List<List<TestFile>> shards = getJUnitShards(projectName);
+
+		// Test classes with the same name in different projects would overwrite each other reports
+		String reportsDir = new File(getReportsFolder(), projectName).getAbsolutePath();
+
+		BuildTemplate shardTemplate = BuildTemplate.get(BuildResource.JUNIT_SHARD_TEMPLATE);
+		StringBuilder shardMacros = new StringBuilder();
+		for (int i = 0; i < shards.size(); i++) {
+			BuildTemplate.Renderer shardMacro = shardTemplate.newRenderer();
+
+			shardMacro.set("<SHARD_INDEX>", Integer.toString(i));
+			shardMacro.set("<JUNIT_MACRO_NAME>", BuildUtils.getJUnitMacroName(projectName, i));
+			shardMacro.set("<PROJECT_NAME>", projectName);
+			shardMacro.set("<REPORT_DIR>", reportsDir);
+			shardMacro.set("<SOURCE_FOLDERS>", JUnitShards.buildShardSources(classpathFiles, shards, i));
+
+			shardMacro.appendTo(shardMacros);
+			shardMacros.append("\n");
+		}
+
+		BuildTemplate.Renderer projectBuild = BuildTemplate.get(BuildResource.JUNIT_PARALLEL_TEMPLATE).newRenderer();
+
+		projectBuild.set("<JUNIT_TARGET_NAME>", BuildUtils.getJUnitTargetName(projectName));
+		projectBuild.set("<PROJECT_NAME>", projectName);
+		projectBuild.set("<FILESET>", BuildUtils.buildFileset(projectName, parser, classpathDefinitions));
+		projectBuild.set("<BIN_FOLDER>", BuildUtils.getBinFolder(classpathFiles));
+		projectBuild.set("<JUNIT_SHARDS>", shardMacros);
+		projectBuild.set("<JUNIT_THREADS>", Integer.toString(BuildProperty.JUNIT_THREADS.getInt()));
+		projectBuild.set("<JUNIT_SHARD_CALLS>", BuildUtils.buildJUnitShardCalls(projectName, shards.size(),
+				"\t\t"));
+
+		return projectBuild;
 	}
 
 	private List<String> getProjectNames() {
 		List<String> projectNames = new ArrayList<>();
 
+		// Resolve the classpath of all projects concurrently
+		Map<String, ClasspathFiles> classpaths = getClasspaths();
+
 		// Get all projects
 		for (String projectName : parser.getEclipseProjects().getProjectNames()) {
 
 			// If cannot get classpath files for any reason, ignore it
 			// (i.e., project is not supposed to be built and does not contain a
 			// .classpath file.
-			Optional<ClasspathFiles> classpathFiles = getClasspath(projectName);
-			if (!classpathFiles.isPresent()) {
+			ClasspathFiles classpathFiles = classpaths.get(projectName);
+			if (classpathFiles == null) {
 				Log.info("Skipping project '" + projectName + "' (could not get classpath information)");
 				continue;
 			}
 
 			// Ignore project if it does not have sources
-			if (classpathFiles.get().getSourceFolders().isEmpty()) {
+			if (classpathFiles.getSourceFolders().isEmpty()) {
 				Log.info("Skipping project '" + projectName + "' (no source folder found)");
 				continue;
 			}
@@ -257,38 +635,72 @@ public class CreateBuildXml {
 		return projectNames;
 	}
 
-	private Optional<ClasspathFiles> getClasspath(String projectName) {
+	private Map<String, ClasspathFiles> getClasspaths() {
+		ExecutorService executor = Executors.newFixedThreadPool(BuildUtils.getThreads());
 		try {
-			return Optional.of(parser.getClasspath(projectName));
-		} catch (Exception e) {
-			return Optional.empty();
+			return parser.getClasspaths(executor);
+		} finally {
+			executor.shutdown();
 		}
 	}
 
-	private String buildCompileTarget(String projectName) {
+	private BuildTemplate.Renderer buildCompileTarget(String projectName) {
 		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
 
+		// The first project of a compile unit compiles the sources of all projects in the unit
+		List<String> unitProjects = BuildUtils.getCompileUnit(projectName, compileUnits);
+		if (!unitProjects.get(0).equals(projectName)) {
+			return BuildTemplate.get(BuildResource.COMPILE_MERGED_TEMPLATE).newRenderer()
+					.set("<PROJECT_NAME>", projectName)
+					.set("<COMPILE_MACRO_NAME>", BuildUtils.getCompileMacroName(projectName))
+					.set("<COMPILE_TARGET_NAME>", BuildUtils.getCompileTargetName(projectName))
+					.set("<UNIT_TARGET_NAME>", BuildUtils.getCompileTargetName(unitProjects.get(0)));
+		}
+
 		String targetName = BuildUtils.getCompileTargetName(projectName);
-		String projectDependencies = BuildUtils.getDependencies(classpathFiles.getParentProjects());
+		List<String> parentProjects = classpathFiles.getParentProjects().stream()
+				.filter(parent -> !unitProjects.contains(parent))
+				.collect(Collectors.toList());
+		String projectDependencies = BuildUtils.getDependencies(parentProjects);
 
-		String outputJar = BuildUtils.getOutputJar(projectName).getAbsolutePath();
-		String fileset = BuildUtils.buildFileset(projectName, parser);
+		String fileset = BuildUtils.buildFileset(projectName, parser, classpathDefinitions);
 		String binFoldername = BuildUtils.getBinFolder(classpathFiles);
-		String sourcePath = BuildUtils.getSourcePath(classpathFiles);
-		String copyTask = BuildUtils.getCopyTask(classpathFiles);
 
-		Replacer projectBuild = new Replacer(BuildResource.COMPILE_TEMPLATE);
+		StringBuilder sourcePath = new StringBuilder();
+		StringBuilder copyTask = new StringBuilder();
+		for (String unitProject : unitProjects) {
+			ClasspathFiles unitClasspath = parser.getClasspath(unitProject);
 
-		projectBuild.replace("<COMPILE_TARGET_NAME>", targetName);
-		projectBuild.replace("<PROJECT_DEPENDENCIES>", projectDependencies);
-		projectBuild.replace("<OUTPUT_JAR_FILE>", outputJar);
-		projectBuild.replace("<FILESET>", fileset);
-		projectBuild.replace("<PROJECT_NAME>", projectName);
-		projectBuild.replace("<BIN_FOLDER>", binFoldername);
-		projectBuild.replace("<SOURCE_PATH>", sourcePath);
-		projectBuild.replace("<COPY_TASK>", copyTask);
+			sourcePath.append(BuildUtils.getSourcePath(unitClasspath));
+			copyTask.append(BuildUtils.getCopyTask(unitClasspath));
+		}
+
+		BuildTemplate.Renderer projectBuild;
+		if (BuildUtils.isParallelCompile()) {
+			projectBuild = BuildTemplate.get(BuildResource.COMPILE_PARALLEL_TEMPLATE).newRenderer();
+			projectBuild.set("<COMPILE_MACRO_NAME>", BuildUtils.getCompileMacroName(projectName));
+		} else {
+			projectBuild = BuildTemplate.get(BuildResource.COMPILE_TEMPLATE).newRenderer();
+		}
+
+		projectBuild.set("<COMPILE_TARGET_NAME>", targetName);
+		projectBuild.set("<PROJECT_DEPENDENCIES>", projectDependencies);
+		projectBuild.set("<FILESET>", fileset);
+		projectBuild.set("<PROJECT_NAME>", projectName);
+		projectBuild.set("<BIN_FOLDER>", binFoldername);
+		projectBuild.set("<SOURCE_PATH>", sourcePath);
+		projectBuild.set("<COPY_TASK>", copyTask);
+
+		if (BuildUtils.isIncrementalCompile()) {
+			projectBuild.set("<INCREMENTAL_START>", BuildUtils.buildIncrementalStart(projectName, unitProjects,
+					parser));
+			projectBuild.set("<INCREMENTAL_END>", BuildUtils.buildIncrementalEnd(classpathFiles));
+		} else {
+			projectBuild.set("<INCREMENTAL_START>", "");
+			projectBuild.set("<INCREMENTAL_END>", "");
+		}
 
-		return projectBuild.toString();
+		return projectBuild;
 	}
 
 	/**
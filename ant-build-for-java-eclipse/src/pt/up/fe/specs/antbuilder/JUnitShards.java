@@ -0,0 +1,276 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import pt.up.fe.specs.antbuilder.classpath.ClasspathFiles;
+import pt.up.fe.specs.library.IoUtils;
+
+/**
+ * Splits the test classes of a project in shards, which run in separate JVMs.
+ *
+ * <p>
+ * The first shard includes all test classes that are not explicitly assigned to the other shards, so that test classes
+ * created after the build file was generated still run.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class JUnitShards {
+
+	private static final String[] TEST_SUFFIXES = { "Test.java", "Tests.java" };
+
+	/**
+	 * A test class of a project.
+	 */
+	public static class TestFile implements Comparable<TestFile> {
+		private final File sourceFolder;
+		private final String path;
+
+		public TestFile(File sourceFolder, String path) {
+			this.sourceFolder = sourceFolder;
+			this.path = path;
+		}
+
+		public File getSourceFolder() {
+			return sourceFolder;
+		}
+
+		/**
+		 *
+		 * @return the path of the file, relative to the source folder and separated by '/'
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 *
+		 * @return the fully qualified name of the class
+		 */
+		public String getClassName() {
+			return path.substring(0, path.length() - ".java".length()).replace('/', '.');
+		}
+
+		@Override
+		public int compareTo(TestFile o) {
+			int result = path.compareTo(o.path);
+			if (result != 0) {
+				return result;
+			}
+
+			return sourceFolder.compareTo(o.sourceFolder);
+		}
+
+		@Override
+		public String toString() {
+			return path;
+		}
+	}
+
+	/**
+	 * The test classes in the source folders of the project (i.e., files ending in Test.java or Tests.java), sorted by
+	 * path.
+	 *
+	 * @param classpathFiles
+	 * @return
+	 */
+	public static List<TestFile> getTestFiles(ClasspathFiles classpathFiles) {
+		List<TestFile> testFiles = new ArrayList<>();
+
+		for (String source : classpathFiles.getSourceFolders()) {
+			File sourceFolder = new File(classpathFiles.getProjectFolder(), source);
+			if (!sourceFolder.isDirectory()) {
+				continue;
+			}
+
+			for (File javaFile : IoUtils.getFilesRecursive(sourceFolder, "java")) {
+				if (!isTestFile(javaFile)) {
+					continue;
+				}
+
+				String path = IoUtils.getRelativePath(javaFile, sourceFolder);
+				if (path == null) {
+					continue;
+				}
+
+				testFiles.add(new TestFile(sourceFolder, path.replace('\\', '/')));
+			}
+		}
+
+		Collections.sort(testFiles);
+
+		return testFiles;
+	}
+
+	private static boolean isTestFile(File javaFile) {
+		for (String suffix : TEST_SUFFIXES) {
+			if (javaFile.getName().endsWith(suffix)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Splits the test files in at most the given number of shards, with the same number of files in each shard (plus
+	 * or minus one). There is always at least one shard.
+	 *
+	 * @param testFiles
+	 * @param shards
+	 * @return
+	 */
+	public static List<List<TestFile>> split(List<TestFile> testFiles, int shards) {
+		int numShards = Math.max(1, Math.min(shards, testFiles.size()));
+
+		List<List<TestFile>> result = new ArrayList<>();
+		for (int i = 0; i < numShards; i++) {
+			result.add(new ArrayList<>());
+		}
+
+		for (int i = 0; i < testFiles.size(); i++) {
+			result.get(i % numShards).add(testFiles.get(i));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Splits the test files in at most the given number of shards, so that the shards take about the same time to run,
+	 * according to the given durations of previous runs.
+	 *
+	 * <p>
+	 * Test classes without a previous duration are assumed to take the average duration of the other test classes of
+	 * the project. If none of the test classes has a previous duration, falls back to {@link #split(List, int)}.
+	 *
+	 * @param testFiles
+	 * @param shards
+	 * @param durations
+	 *            the duration of each test class, in seconds
+	 * @return
+	 */
+	public static List<List<TestFile>> split(List<TestFile> testFiles, int shards, Map<String, Double> durations) {
+		double knownTotal = 0;
+		int knownCount = 0;
+		for (TestFile testFile : testFiles) {
+			Double duration = durations.get(testFile.getClassName());
+			if (duration != null) {
+				knownTotal += duration;
+				knownCount++;
+			}
+		}
+
+		if (knownCount == 0) {
+			return split(testFiles, shards);
+		}
+
+		double defaultDuration = knownTotal / knownCount;
+
+		// Longest tests first, each one to the shard that currently finishes first
+		List<TestFile> sortedFiles = new ArrayList<>(testFiles);
+		Collections.sort(sortedFiles, Comparator.comparingDouble(
+				(TestFile testFile) -> durations.getOrDefault(testFile.getClassName(), defaultDuration)).reversed());
+
+		int numShards = Math.max(1, Math.min(shards, testFiles.size()));
+		double[] loads = new double[numShards];
+
+		List<List<TestFile>> result = new ArrayList<>();
+		for (int i = 0; i < numShards; i++) {
+			result.add(new ArrayList<>());
+		}
+
+		for (TestFile testFile : sortedFiles) {
+			int shortestShard = 0;
+			for (int i = 1; i < numShards; i++) {
+				if (loads[i] < loads[shortestShard]) {
+					shortestShard = i;
+				}
+			}
+
+			result.get(shortestShard).add(testFile);
+			loads[shortestShard] += durations.getOrDefault(testFile.getClassName(), defaultDuration);
+		}
+
+		// Same order as the test files, so that the build file only changes when the assignment changes
+		for (List<TestFile> shard : result) {
+			Collections.sort(shard);
+		}
+
+		return result;
+	}
+
+	/**
+	 * The filesets of the batchtest of the given shard.
+	 *
+	 * @param classpathFiles
+	 * @param shards
+	 * @param shardIndex
+	 * @return
+	 */
+	public static String buildShardSources(ClasspathFiles classpathFiles, List<List<TestFile>> shards,
+			int shardIndex) {
+
+		StringBuilder builder = new StringBuilder();
+
+		for (String source : classpathFiles.getSourceFolders()) {
+			File sourceFolder = new File(classpathFiles.getProjectFolder(), source);
+
+			// First shard: every test, except the ones explicitly assigned to other shards
+			if (shardIndex == 0) {
+				builder.append("	       <fileset dir=\"" + sourceFolder.getAbsolutePath() + "\">\n");
+				for (String suffix : TEST_SUFFIXES) {
+					builder.append("	            <include name=\"**/*" + suffix + "\" />\n");
+				}
+				for (int i = 1; i < shards.size(); i++) {
+					appendPatterns(builder, "exclude", sourceFolder, shards.get(i));
+				}
+				builder.append("	       </fileset>\n");
+				continue;
+			}
+
+			StringBuilder includes = new StringBuilder();
+			appendPatterns(includes, "include", sourceFolder, shards.get(shardIndex));
+
+			// Fileset without includes would select every file
+			if (includes.length() == 0) {
+				continue;
+			}
+
+			builder.append("	       <fileset dir=\"" + sourceFolder.getAbsolutePath() + "\">\n");
+			builder.append(includes);
+			builder.append("	       </fileset>\n");
+		}
+
+		return builder.toString();
+	}
+
+	private static void appendPatterns(StringBuilder builder, String tag, File sourceFolder,
+			List<TestFile> testFiles) {
+
+		for (TestFile testFile : testFiles) {
+			if (!testFile.getSourceFolder().equals(sourceFolder)) {
+				continue;
+			}
+
+			builder.append("	            <" + tag + " name=\"" + testFile.getPath() + "\" />\n");
+		}
+	}
+}
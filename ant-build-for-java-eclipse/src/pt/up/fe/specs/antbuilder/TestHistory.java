@@ -0,0 +1,196 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import pt.up.fe.specs.library.IoUtils;
+import pt.up.fe.specs.library.Log;
+
+/**
+ * The duration of each test class in previous runs, collected from the JUnit XML reports.
+ *
+ * <p>
+ * The history is kept in a text file, with a line "<CLASS_NAME>\t<SECONDS>" for each test class.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class TestHistory {
+
+	public static final String DEFAULT_FILENAME = ".antbuilder.testhistory";
+
+	private static final String REPORT_PREFIX = "TEST-";
+	private static final String TAG_TESTSUITE = "testsuite";
+	private static final String ATTR_NAME = "name";
+	private static final String ATTR_TIME = "time";
+
+	private static final XMLInputFactory FACTORY = newFactory();
+
+	private static XMLInputFactory newFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	// Sorted, so that the file does not change if the durations did not change
+	private final Map<String, Double> durations;
+
+	private TestHistory(Map<String, Double> durations) {
+		this.durations = durations;
+	}
+
+	public static TestHistory newInstance() {
+		return new TestHistory(new TreeMap<>());
+	}
+
+	/**
+	 * Reads the history from the given file. If the file does not exist, returns an empty history.
+	 *
+	 * @param historyFile
+	 * @return
+	 */
+	public static TestHistory read(File historyFile) {
+		TestHistory history = newInstance();
+
+		if (!historyFile.isFile()) {
+			return history;
+		}
+
+		for (String line : IoUtils.read(historyFile).split("\n")) {
+			int separator = line.lastIndexOf('\t');
+			if (separator == -1) {
+				continue;
+			}
+
+			try {
+				history.durations.put(line.substring(0, separator),
+						Double.parseDouble(line.substring(separator + 1)));
+			} catch (NumberFormatException e) {
+				Log.warn("Ignoring line '" + line + "' of test history '" + historyFile + "'");
+			}
+		}
+
+		return history;
+	}
+
+	/**
+	 * Updates the durations with the JUnit XML reports (TEST-*.xml) inside the given folder and its sub-folders. Test
+	 * classes without a report keep their previous duration.
+	 *
+	 * @param reportsFolder
+	 * @return the number of reports that were read
+	 */
+	public int update(File reportsFolder) {
+		if (!reportsFolder.isDirectory()) {
+			return 0;
+		}
+
+		int reports = 0;
+		for (File report : IoUtils.getFilesRecursive(reportsFolder, "xml")) {
+			if (!report.getName().startsWith(REPORT_PREFIX)) {
+				continue;
+			}
+
+			try {
+				if (readReport(report)) {
+					reports++;
+				}
+			} catch (IOException | XMLStreamException | NumberFormatException e) {
+				Log.warn("Could not read test report '" + report + "': " + e);
+			}
+		}
+
+		return reports;
+	}
+
+	private boolean readReport(File report) throws IOException, XMLStreamException {
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(report))) {
+			XMLStreamReader reader = FACTORY.createXMLStreamReader(stream);
+			try {
+				// Only the root element is needed
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+						continue;
+					}
+
+					if (!reader.getLocalName().equals(TAG_TESTSUITE)) {
+						return false;
+					}
+
+					String name = reader.getAttributeValue(null, ATTR_NAME);
+					String time = reader.getAttributeValue(null, ATTR_TIME);
+					if (name == null || time == null) {
+						return false;
+					}
+
+					durations.put(name, Double.parseDouble(time));
+					return true;
+				}
+
+				return false;
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Sets the duration of the given entry.
+	 *
+	 * @param name
+	 * @param seconds
+	 */
+	public void put(String name, double seconds) {
+		durations.put(name, seconds);
+	}
+
+	/**
+	 *
+	 * @return the duration of each test class, in seconds
+	 */
+	public Map<String, Double> getDurations() {
+		return Collections.unmodifiableMap(durations);
+	}
+
+	public void write(File historyFile) {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, Double> entry : durations.entrySet()) {
+			builder.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+		}
+
+		String contents = builder.toString();
+
+		// Do not touch the file if it did not change
+		if (historyFile.isFile() && contents.equals(IoUtils.read(historyFile))) {
+			return;
+		}
+
+		IoUtils.write(contents, historyFile);
+	}
+}
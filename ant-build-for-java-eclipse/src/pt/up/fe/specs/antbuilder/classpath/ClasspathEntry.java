@@ -0,0 +1,66 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.classpath;
+
+/**
+ * An element of a .classpath file, with the attributes the parser uses.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class ClasspathEntry {
+
+	public static final String TAG_CLASSPATHENTRY = "classpathentry";
+
+	private final String tag;
+	private final String kind;
+	private final String path;
+	private final String combineAccessRules;
+
+	public ClasspathEntry(String tag, String kind, String path, String combineAccessRules) {
+		this.tag = tag;
+		this.kind = kind;
+		this.path = path;
+		this.combineAccessRules = combineAccessRules;
+	}
+
+	/**
+	 *
+	 * @return the name of the element, which should be 'classpathentry'
+	 */
+	public String getTag() {
+		return tag;
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 *
+	 * @return the value of the attribute 'combineaccessrules', or null if not present
+	 */
+	public String getCombineAccessRules() {
+		return combineAccessRules;
+	}
+
+	@Override
+	public String toString() {
+		return "<" + tag + " kind=\"" + kind + "\" path=\"" + path + "\">";
+	}
+}
@@ -14,12 +14,18 @@
 package pt.up.fe.specs.antbuilder.classpath;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.RandomAccess;
 
 /**
+ * The files of the classpath of a project.
+ *
+ * <p>
+ * Lists are views shared with the closure of the project (see {@link ProjectGraph}), a project does not keep copies of
+ * the names, folders and JARs of its dependencies.
+ *
  * @author Joao Bispo
  *
  */
@@ -28,38 +34,69 @@ public class ClasspathFiles {
     private final String projectName;
     private final File projectFolder;
     private final List<String> sourceFolders;
-    private final Map<String, File> projectFolders;
+    // Same order, the project of each output folder
+    private final List<String> outputProjects;
+    private final List<File> projectFolders;
     private final List<File> jarFiles;
     private final List<String> parentProjects;
 
     public ClasspathFiles(String projectName, File projectFolder, List<String> sourceFolders,
-	    Map<String, File> projectFolders, List<File> jarFiles) {
+	    List<String> outputProjects, List<File> projectFolders, List<File> jarFiles) {
 	this.projectName = projectName;
 	this.projectFolder = projectFolder;
-	this.projectFolders = projectFolders;
 	this.sourceFolders = sourceFolders;
+	this.outputProjects = outputProjects;
+	this.projectFolders = projectFolders;
 	this.jarFiles = jarFiles;
-	this.parentProjects = buildParentProjects(projectName, projectFolders);
+	this.parentProjects = new ParentProjects(outputProjects, getSelfIndex(projectName, outputProjects));
     }
 
-    private static List<String> buildParentProjects(String projectName, Map<String, File> projectFolders) {
-	List<String> parentProjects = new ArrayList<>();
+    private static String parseName(String name) {
+	if (name.startsWith("/")) {
+	    return name.substring(1);
+	}
+
+	return name;
+    }
 
-	for (String name : projectFolders.keySet()) {
-	    // Parse name
-	    if (name.startsWith("/")) {
-		name = name.substring(1);
+    /**
+     * @return the index of the project itself in the given list, or -1 if it is not there
+     */
+    private static int getSelfIndex(String projectName, List<String> outputProjects) {
+	for (int i = 0; i < outputProjects.size(); i++) {
+	    if (parseName(outputProjects.get(i)).equals(projectName)) {
+		return i;
 	    }
+	}
 
-	    // Do not include the project itself
-	    if (name.equals(projectName)) {
-		continue;
+	return -1;
+    }
+
+    /**
+     * The output projects, without the project itself.
+     */
+    private static class ParentProjects extends AbstractList<String> implements RandomAccess {
+	private final List<String> outputProjects;
+	private final int selfIndex;
+
+	public ParentProjects(List<String> outputProjects, int selfIndex) {
+	    this.outputProjects = outputProjects;
+	    this.selfIndex = selfIndex;
+	}
+
+	@Override
+	public String get(int index) {
+	    if (selfIndex != -1 && index >= selfIndex) {
+		index++;
 	    }
 
-	    parentProjects.add(name);
+	    return parseName(outputProjects.get(index));
 	}
 
-	return parentProjects;
+	@Override
+	public int size() {
+	    return selfIndex == -1 ? outputProjects.size() : outputProjects.size() - 1;
+	}
     }
 
     public String getProjectName() {
@@ -77,8 +114,7 @@ public class ClasspathFiles {
      * @return the projectFolders
      */
     public Collection<File> getProjectFolders() {
-	// return projectFolders;
-	return projectFolders.values();
+	return projectFolders;
     }
 
     public List<String> getParentProjects() {
@@ -98,6 +134,7 @@ public class ClasspathFiles {
      */
     @Override
     public String toString() {
-	return "Project Folders:" + projectFolders + "\n" + "Jar Files:" + jarFiles;
+	return "Project Folders:" + projectFolders + "\n" + "Parent Projects:" + parentProjects + "\n" + "Jar Files:"
+		+ jarFiles;
     }
 }
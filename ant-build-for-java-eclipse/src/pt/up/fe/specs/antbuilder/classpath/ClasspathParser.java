@@ -14,31 +14,41 @@
 package pt.up.fe.specs.antbuilder.classpath;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import nu.xom.Attribute;
-import nu.xom.Document;
-import nu.xom.Element;
-import nu.xom.Node;
+import pt.up.fe.specs.antbuilder.BuildUtils;
 import pt.up.fe.specs.antbuilder.utilities.EclipseProjects;
+import pt.up.fe.specs.antbuilder.utilities.FileCache;
+import pt.up.fe.specs.antbuilder.utilities.MetadataCache;
+import pt.up.fe.specs.antbuilder.utilities.Phase;
+import pt.up.fe.specs.antbuilder.utilities.PhaseTimer;
 import pt.up.fe.specs.antbuilder.utilities.UserLibraries;
-import pt.up.fe.specs.antbuilder.utilities.XomUtils;
-import pt.up.fe.specs.library.IoUtils;
 import pt.up.fe.specs.library.Log;
 
 /**
+ * Resolves the classpath of Eclipse projects.
+ * 
+ * <p>
+ * Instances are thread-safe, the classpath of several projects can be resolved concurrently (see
+ * {@link #getClasspaths(Collection, ExecutorService)}).
+ * 
  * @author Joao Bispo
  * 
  */
 public class ClasspathParser {
 
-	private static final String FILENAME_CLASSPATH = ".classpath";
+	public static final String FILENAME_CLASSPATH = ".classpath";
 	private static final String USER_LIBRARY = "org.eclipse.jdt.USER_LIBRARY/";
 
 	private static final Set<String> CONTAINERS_TO_IGNORE = new HashSet<>(Arrays.asList(
@@ -46,11 +56,19 @@ public class ClasspathParser {
 
 	private final EclipseProjects eclipseProjects;
 	private final Optional<UserLibraries> userLibraries;
+	private final MetadataCache cache;
+
+	/**
+	 * The parsed .classpath of each project, each file is parsed only once.
+	 */
+	private final Map<String, ProjectClasspath> projectClasspaths;
 
-	// TODO: This should be final, but it would need a restructuring of the
-	// class
-	private File currentProjectFolder = null;
-	private List<String> currentSourceFolders;
+	/**
+	 * Transitive projects and JARs of each project.
+	 */
+	private final ProjectGraph graph;
+
+	private final Map<String, ClasspathFiles> classpaths;
 
 	/*
 	 * public static ClasspathParser newInstance(File workspaceFolder) {
@@ -82,25 +100,71 @@ public class ClasspathParser {
 	 * @param userLibraries
 	 * @param eclipseProjects
 	 */
-	private ClasspathParser(EclipseProjects eclipseProjects, Optional<UserLibraries> userLibraries) {
-		this.currentSourceFolders = new ArrayList<>();
-		this.currentProjectFolder = null;
+	private ClasspathParser(EclipseProjects eclipseProjects, Optional<UserLibraries> userLibraries,
+			MetadataCache cache) {
+		this.projectClasspaths = new ConcurrentHashMap<>();
+		this.graph = new ProjectGraph(this::getProjectClasspath);
+		this.classpaths = new ConcurrentHashMap<>();
 		this.userLibraries = userLibraries;
 		this.eclipseProjects = eclipseProjects;
+		this.cache = cache;
 	}
 
 	public static ClasspathParser newInstance(File repositoryFolder) {
-		EclipseProjects eclipseProjects = EclipseProjects.newFromRepository(repositoryFolder);
-
-		return new ClasspathParser(eclipseProjects, Optional.empty());
+		return newInstance(repositoryFolder, Optional.empty(), MetadataCache.newTransient());
 	}
 
 	public static ClasspathParser newInstance(File repositoryFolder, Optional<File> userLibrariesFile) {
-		if (userLibrariesFile.isPresent()) {
-			return newInstance(repositoryFolder, userLibrariesFile.get());
+		return newInstance(repositoryFolder, userLibrariesFile, MetadataCache.newTransient());
+	}
+
+	/**
+	 * Creates a new ClasspathParser from the folder which contains Eclipse projects, and optionally an exported user
+	 * libraries file. Metadata files that are in the given cache and did not change are not parsed again.
+	 * 
+	 * <p>
+	 * Clears the {@link FileCache}, files might have changed since the last parser of this JVM.
+	 * 
+	 * @param repositoryFolder
+	 * @param userLibrariesFile
+	 * @param cache
+	 * @return
+	 */
+	public static ClasspathParser newInstance(File repositoryFolder, Optional<File> userLibrariesFile,
+			MetadataCache cache) {
+
+		FileCache.clear();
+
+		EclipseProjects eclipseProjects;
+		try (PhaseTimer timer = Phase.DISCOVERY.start()) {
+			eclipseProjects = EclipseProjects.newFromRepository(repositoryFolder, BuildUtils.getThreads(), cache);
+			timer.setCount(eclipseProjects.getProjectNames().size());
 		}
 
-		return newInstance(repositoryFolder);
+		Optional<UserLibraries> userLibraries = userLibrariesFile.map(file -> {
+			try (PhaseTimer timer = Phase.USER_LIBRARIES.start()) {
+				UserLibraries libraries = UserLibraries.newInstance(eclipseProjects, file, cache);
+				timer.setCount(libraries.getLibraries().size());
+				return libraries;
+			}
+		});
+
+		return new ClasspathParser(eclipseProjects, userLibraries, cache);
+	}
+
+	/**
+	 * Creates a new ClasspathParser from projects and user libraries that were already found (e.g., to parse the same
+	 * repository several times without looking for the projects again). Clears the {@link FileCache}, as
+	 * {@link #newInstance(File, Optional, MetadataCache)}.
+	 * 
+	 * @param eclipseProjects
+	 * @param userLibraries
+	 * @return
+	 */
+	public static ClasspathParser newInstance(EclipseProjects eclipseProjects, Optional<UserLibraries> userLibraries) {
+		FileCache.clear();
+
+		return new ClasspathParser(eclipseProjects, userLibraries, MetadataCache.newTransient());
 	}
 
 	/**
@@ -112,10 +176,7 @@ public class ClasspathParser {
 	 * @return
 	 */
 	public static ClasspathParser newInstance(File repositoryFolder, File userLibrariesFile) {
-		EclipseProjects eclipseProjects = EclipseProjects.newFromRepository(repositoryFolder);
-		UserLibraries userLibraries = UserLibraries.newInstance(eclipseProjects, userLibrariesFile);
-
-		return new ClasspathParser(eclipseProjects, Optional.of(userLibraries));
+		return newInstance(repositoryFolder, Optional.of(userLibrariesFile));
 	}
 
 	/**
@@ -136,7 +197,10 @@ public class ClasspathParser {
 	private ClasspathParser(File workspaceFolder) {
 		// this.workspaceFolder = workspaceFolder;
 		// this.projectName = projectName;
-		this.currentSourceFolders = new ArrayList<>();
+		this.projectClasspaths = new ConcurrentHashMap<>();
+		this.graph = new ProjectGraph(this::getProjectClasspath);
+		this.classpaths = new ConcurrentHashMap<>();
+		this.cache = MetadataCache.newTransient();
 		// this.classpathFiles = new HashMap<>();
 		/*
 		if (outputFolder.isPresent()) {
@@ -146,8 +210,15 @@ public class ClasspathParser {
 			    .makePathsRelative(outF));
 		} else {
 		*/
-		this.eclipseProjects = EclipseProjects.newFromWorkspace(workspaceFolder);
-		this.userLibraries = Optional.of(UserLibraries.newInstance(workspaceFolder, eclipseProjects));
+		try (PhaseTimer timer = Phase.DISCOVERY.start()) {
+			this.eclipseProjects = EclipseProjects.newFromWorkspace(workspaceFolder, BuildUtils.getThreads());
+			timer.setCount(eclipseProjects.getProjectNames().size());
+		}
+
+		try (PhaseTimer timer = Phase.USER_LIBRARIES.start()) {
+			this.userLibraries = Optional.of(UserLibraries.newInstance(workspaceFolder, eclipseProjects));
+			timer.setCount(userLibraries.get().getLibraries().size());
+		}
 		// }
 
 		// parseClasspaths();
@@ -177,13 +248,97 @@ public class ClasspathParser {
 	}
 	*/
 
+	/**
+	 * The classpath of the given project, including the projects and JARs it transitively depends on.
+	 * 
+	 * <p>
+	 * Results are memoized, and each .classpath file is parsed at most once per instance.
+	 * 
+	 * @param projectName
+	 * @return
+	 */
 	public ClasspathFiles getClasspath(String projectName) {
+		projectName = ProjectClasspath.normalizeName(projectName);
 
-		FilesetBuilder builder = new FilesetBuilder();
+		ClasspathFiles classpathFiles = classpaths.get(projectName);
+		if (classpathFiles != null) {
+			return classpathFiles;
+		}
+
+		try (PhaseTimer timer = Phase.CLASSPATH.start(projectName)) {
+			ProjectClasspath projectClasspath = getProjectClasspath(projectName);
+			ProjectGraph.Closure closure = graph.getClosure(projectName);
+
+			classpathFiles = new ClasspathFiles(projectName, projectClasspath.getProjectFolder(),
+					projectClasspath.getSourceFolders(), closure.getOutputProjects(), closure.getOutputFolders(),
+					closure.getJars());
+			timer.setCount(closure.getProjects().size() + closure.getJars().size());
+		}
+
+		// Another thread might have resolved the same project in the meantime
+		ClasspathFiles previous = classpaths.putIfAbsent(projectName, classpathFiles);
+
+		return previous != null ? previous : classpathFiles;
+	}
+
+	/**
+	 * Resolves the classpath of all projects, using the given executor.
+	 * 
+	 * @param executor
+	 * @return
+	 */
+	public Map<String, ClasspathFiles> getClasspaths(ExecutorService executor) {
+		return getClasspaths(eclipseProjects.getProjectNames(), executor);
+	}
+
+	/**
+	 * Resolves the classpath of the given projects concurrently, using the given executor.
+	 * 
+	 * @param projectNames
+	 * @param executor
+	 * @return a map with the classpath of each project, in the same order as the given names. Projects whose
+	 *         classpath could not be resolved (e.g., do not have a .classpath file) are not included
+	 */
+	public Map<String, ClasspathFiles> getClasspaths(Collection<String> projectNames, ExecutorService executor) {
+		Map<String, Future<ClasspathFiles>> futures = new LinkedHashMap<>();
+		for (String projectName : projectNames) {
+			futures.put(projectName, executor.submit(() -> getClasspath(projectName)));
+		}
+
+		Map<String, ClasspathFiles> classpathFiles = new LinkedHashMap<>();
+		for (Map.Entry<String, Future<ClasspathFiles>> entry : futures.entrySet()) {
+			try {
+				classpathFiles.put(entry.getKey(), entry.getValue().get());
+			} catch (ExecutionException e) {
+				Log.lib("Could not resolve classpath of project '" + entry.getKey() + "': " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while resolving classpaths", e);
+			}
+		}
+
+		return classpathFiles;
+	}
+
+	/**
+	 * The direct contents of the .classpath file of the given project.
+	 * 
+	 * @param projectName
+	 * @return
+	 */
+	public ProjectClasspath getProjectClasspath(String projectName) {
+		projectName = ProjectClasspath.normalizeName(projectName);
 
-		parseClasspath(projectName, builder);
+		// Parsing does not recurse into other projects, it is safe to parse inside computeIfAbsent
+		return projectClasspaths.computeIfAbsent(projectName, this::parseClasspath);
+	}
 
-		return builder.newClasspath(projectName, currentProjectFolder, currentSourceFolders);
+	/**
+	 * 
+	 * @return the dependency graph used to build the closures of the projects
+	 */
+	public ProjectGraph getGraph() {
+		return graph;
 	}
 
 	/**
@@ -193,22 +348,14 @@ public class ClasspathParser {
 		return eclipseProjects;
 	}
 
-	private void parseClasspath(String projectName, FilesetBuilder builder) {
-
-		List<String> sourceFolders = new ArrayList<>();
+	private ProjectClasspath parseClasspath(String projectName) {
 
 		File projectFolder = getProjectFolder(projectName);
 
-		// Check if builder already parsed this project
-		if (builder.hasParsedProject(projectFolder.getPath())) {
-			return;
-		}
-
-		// builder.markProjectAsParsed(canonicalPath);
-		builder.markProjectAsParsed(projectFolder.getPath());
+		ProjectClasspath.Builder builder = new ProjectClasspath.Builder(projectName, projectFolder);
 
 		File classpathFile = new File(projectFolder, FILENAME_CLASSPATH);
-		if (!classpathFile.isFile()) {
+		if (!FileCache.isFile(classpathFile)) {
 			throw new RuntimeException("Could not find classpath file '" + FILENAME_CLASSPATH + "' in folder '"
 					+ projectFolder + "'");
 		}
@@ -218,28 +365,19 @@ public class ClasspathParser {
 		
 		*/
 
-		Document classpath = XomUtils.getDocument(IoUtils.read(classpathFile), false);
-		Element element = classpath.getRootElement();
-		for (int i = 0; i < element.getChildCount(); i++) {
-			Node child = element.getChild(i);
-			if (!(child instanceof Element)) {
+		for (ClasspathEntry entry : cache.getClasspathEntries(classpathFile)) {
+			if (!entry.getTag().equals(ClasspathEntry.TAG_CLASSPATHENTRY)) {
+				Log.warn("Entry not parsed:" + entry.getTag());
 				continue;
 			}
 
-			Element childElem = (Element) child;
-			if (!childElem.getLocalName().equals("classpathentry")) {
-				Log.warn("Entry not parsed:" + childElem.getLocalName());
-				continue;
-			}
+			String kindValue = entry.getKind();
+			String pathValue = entry.getPath();
+			String accessRulesValue = entry.getCombineAccessRules();
 
-			Attribute kindAttribute = childElem.getAttribute("kind");
-			String kindValue = kindAttribute.getValue();
-			Attribute pathAttribute = childElem.getAttribute("path");
-			String pathValue = pathAttribute.getValue();
-			Attribute accessRulesAttribute = childElem.getAttribute("combineaccessrules");
-			String accessRulesValue = null;
-			if (accessRulesAttribute != null) {
-				accessRulesValue = accessRulesAttribute.getValue();
+			if (kindValue == null || pathValue == null) {
+				Log.warn("Entry without 'kind' or 'path' in '" + classpathFile + "', ignoring:" + entry);
+				continue;
 			}
 
 			// Treat the kind "container"
@@ -286,7 +424,7 @@ public class ClasspathParser {
 					if (!pathValue.startsWith("/")) {
 
 						// Add to sources folder
-						sourceFolders.add(pathValue);
+						builder.addSourceFolder(pathValue);
 						continue;
 					}
 
@@ -295,8 +433,9 @@ public class ClasspathParser {
 					continue;
 				}
 
-				// Recursively add project to builder
-				parseClasspath(pathValue, builder);
+				// Add project, dependencies are resolved when building the
+				// closure
+				builder.addProject(pathValue);
 				continue;
 				// if (isContainerToIgnore(pathValue)) {
 				// Log.fineLib("Ignoring "+pathValue);
@@ -329,7 +468,7 @@ public class ClasspathParser {
 				// System.out.println("ADDING:" + projectName + " -> " +
 				// projectClasses);
 				// System.out.println("PROJECT FOLDER:" + projectFolder);
-				builder.addProject(projectName, projectClasses);
+				builder.addOutput(projectClasses);
 			}
 
 			// String pathValue = pathAttribute.getValue();
@@ -338,25 +477,18 @@ public class ClasspathParser {
 			// System.out.println("ACCESS RULES:" + accessRulesValue);
 		}
 
-		this.currentSourceFolders = sourceFolders;
-		this.currentProjectFolder = getProjectFolder(projectName);
-
+		return builder.build();
 	}
 
 	private File getProjectFolder(String projectName) {
 		File projectFolder = eclipseProjects.getProjectFolder(projectName);
 
-		String canonicalPath = null;
-		try {
-			canonicalPath = projectFolder.getCanonicalPath();
-		} catch (IOException e) {
-			throw new RuntimeException("Could not get canonical path for '" + canonicalPath + "'", e);
-		}
+		// Resolved once per folder, projects are looked up for each dependency
+		String canonicalPath = FileCache.getCanonicalFile(projectFolder).getPath();
 
 		// Now use canonical path
 		canonicalPath = canonicalPath.replace('\\', '/');
-		this.currentProjectFolder = new File(canonicalPath);
-		return this.currentProjectFolder;
+		return new File(canonicalPath);
 	}
 
 	/**
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.classpath;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The direct contents of the .classpath file of a single project, in the order they appear in the file.
+ *
+ * <p>
+ * Dependencies to other projects are kept as names, transitive information is built by {@link ClasspathParser}.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class ProjectClasspath {
+
+	public enum EntryKind {
+		JARS,
+		PROJECT,
+		OUTPUT;
+	}
+
+	public static class Entry {
+
+		private final EntryKind kind;
+		private final List<File> jars;
+		private final String project;
+		private final File outputFolder;
+
+		private Entry(EntryKind kind, List<File> jars, String project, File outputFolder) {
+			this.kind = kind;
+			this.jars = jars;
+			this.project = project;
+			this.outputFolder = outputFolder;
+		}
+
+		public EntryKind getKind() {
+			return kind;
+		}
+
+		/**
+		 *
+		 * @return the JAR files of a JARS entry
+		 */
+		public List<File> getJars() {
+			return jars;
+		}
+
+		/**
+		 *
+		 * @return the name of the project of a PROJECT entry, without a leading '/'
+		 */
+		public String getProject() {
+			return project;
+		}
+
+		/**
+		 *
+		 * @return the output folder of an OUTPUT entry
+		 */
+		public File getOutputFolder() {
+			return outputFolder;
+		}
+	}
+
+	private final String projectName;
+	private final File projectFolder;
+	private final List<String> sourceFolders;
+	private final List<Entry> entries;
+	private final List<String> dependencies;
+	private final File outputFolder;
+
+	private ProjectClasspath(String projectName, File projectFolder, List<String> sourceFolders, List<Entry> entries) {
+		this.projectName = projectName;
+		this.projectFolder = projectFolder;
+		this.sourceFolders = Collections.unmodifiableList(sourceFolders);
+		this.entries = Collections.unmodifiableList(entries);
+		this.dependencies = Collections.unmodifiableList(buildDependencies(entries));
+		this.outputFolder = buildOutputFolder(entries);
+	}
+
+	private static List<String> buildDependencies(List<Entry> entries) {
+		List<String> dependencies = new ArrayList<>();
+
+		for (Entry entry : entries) {
+			if (entry.getKind() == EntryKind.PROJECT && !dependencies.contains(entry.getProject())) {
+				dependencies.add(entry.getProject());
+			}
+		}
+
+		return dependencies;
+	}
+
+	private static File buildOutputFolder(List<Entry> entries) {
+		File outputFolder = null;
+
+		// If there are several output entries, the last one is used
+		for (Entry entry : entries) {
+			if (entry.getKind() == EntryKind.OUTPUT) {
+				outputFolder = entry.getOutputFolder();
+			}
+		}
+
+		return outputFolder;
+	}
+
+	/**
+	 * Removes the leading '/' that Eclipse uses when referring to other projects.
+	 *
+	 * @param projectName
+	 * @return
+	 */
+	public static String normalizeName(String projectName) {
+		if (projectName.startsWith("/")) {
+			return projectName.substring(1);
+		}
+
+		return projectName;
+	}
+
+	public String getProjectName() {
+		return projectName;
+	}
+
+	public File getProjectFolder() {
+		return projectFolder;
+	}
+
+	public List<String> getSourceFolders() {
+		return sourceFolders;
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 *
+	 * @return the names of the projects this project directly depends on, in the order they first appear
+	 */
+	public List<String> getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 *
+	 * @return the output folder of the project, or null if the .classpath file does not have an output entry
+	 */
+	public File getOutputFolder() {
+		return outputFolder;
+	}
+
+	@Override
+	public String toString() {
+		return projectName + " -> " + dependencies;
+	}
+
+	public static class Builder {
+
+		private final String projectName;
+		private final File projectFolder;
+		private final List<String> sourceFolders;
+		private final List<Entry> entries;
+
+		public Builder(String projectName, File projectFolder) {
+			this.projectName = normalizeName(projectName);
+			this.projectFolder = projectFolder;
+			this.sourceFolders = new ArrayList<>();
+			this.entries = new ArrayList<>();
+		}
+
+		public Builder addSourceFolder(String sourceFolder) {
+			sourceFolders.add(sourceFolder);
+			return this;
+		}
+
+		public Builder addJars(List<File> jars) {
+			entries.add(new Entry(EntryKind.JARS, jars, null, null));
+			return this;
+		}
+
+		public Builder addProject(String projectName) {
+			entries.add(new Entry(EntryKind.PROJECT, null, normalizeName(projectName), null));
+			return this;
+		}
+
+		public Builder addOutput(File outputFolder) {
+			entries.add(new Entry(EntryKind.OUTPUT, null, null, outputFolder));
+			return this;
+		}
+
+		public ProjectClasspath build() {
+			return new ProjectClasspath(projectName, projectFolder, new ArrayList<>(sourceFolders),
+					new ArrayList<>(entries));
+		}
+	}
+}
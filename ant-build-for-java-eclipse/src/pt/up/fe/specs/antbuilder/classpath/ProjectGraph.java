@@ -0,0 +1,648 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.classpath;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The dependency graph of the projects, where projects and JARs are identified by dense int ids.
+ *
+ * <p>
+ * The transitive closure of each project is computed once, by merging the memoized closures of its dependencies with
+ * bitsets, and is kept as ordered arrays of ids. Projects and JARs appear in the order they are first found when
+ * visiting the .classpath entries depth-first.
+ *
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class ProjectGraph {
+
+	private final Function<String, ProjectClasspath> classpaths;
+
+	private final Ids<String> projects;
+	private final Ids<File> jars;
+
+	/**
+	 * Closures that are complete, by project name.
+	 */
+	private final Map<String, Closure> closures;
+
+	/**
+	 *
+	 * @param classpaths
+	 *            returns the parsed .classpath of a project
+	 */
+	public ProjectGraph(Function<String, ProjectClasspath> classpaths) {
+		this.classpaths = classpaths;
+		this.projects = new Ids<>();
+		this.jars = new Ids<>();
+		this.closures = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * The projects and JARs the given project transitively depends on.
+	 *
+	 * @param projectName
+	 * @return
+	 */
+	public Closure getClosure(String projectName) {
+		Closure closure = closures.get(projectName);
+		if (closure != null) {
+			return closure;
+		}
+
+		return buildClosure(projectName, new IntList(), new BitSet()).closure;
+	}
+
+	/**
+	 *
+	 * @return the number of projects that have an id
+	 */
+	public int getNumProjects() {
+		return projects.size();
+	}
+
+	/**
+	 *
+	 * @return the number of JARs that have an id
+	 */
+	public int getNumJars() {
+		return jars.size();
+	}
+
+	/**
+	 * The strongly connected components of the given projects that contain a dependency cycle, found with Tarjan's
+	 * algorithm over the direct dependencies of the projects.
+	 *
+	 * <p>
+	 * Dependencies to projects that are not in the given collection are ignored.
+	 *
+	 * @param projectNames
+	 * @return the projects of each cycle, in the same order as the given collection. Components are ordered by their
+	 *         first project
+	 */
+	public List<List<String>> getCycles(Collection<String> projectNames) {
+		List<String> names = new ArrayList<>(projectNames);
+		Map<String, Integer> indexes = new HashMap<>();
+		for (int i = 0; i < names.size(); i++) {
+			indexes.put(names.get(i), i);
+		}
+
+		int numProjects = names.size();
+		int[][] dependencies = new int[numProjects][];
+		for (int i = 0; i < numProjects; i++) {
+			dependencies[i] = getDependencies(names.get(i), indexes);
+		}
+
+		// Order in which each project was visited, -1 if not visited yet
+		int[] order = new int[numProjects];
+		Arrays.fill(order, -1);
+		int[] lowLink = new int[numProjects];
+		BitSet inStack = new BitSet(numProjects);
+		IntList stack = new IntList();
+
+		// Iterative depth-first search, deep dependency chains do not overflow the call stack
+		IntList callStack = new IntList();
+		int[] nextDependency = new int[numProjects];
+		int visited = 0;
+
+		List<List<String>> cycles = new ArrayList<>();
+		for (int root = 0; root < numProjects; root++) {
+			if (order[root] != -1) {
+				continue;
+			}
+
+			order[root] = lowLink[root] = visited++;
+			stack.add(root);
+			inStack.set(root);
+			callStack.add(root);
+
+			while (callStack.size() > 0) {
+				int project = callStack.last();
+
+				if (nextDependency[project] < dependencies[project].length) {
+					int dependency = dependencies[project][nextDependency[project]++];
+
+					if (order[dependency] == -1) {
+						order[dependency] = lowLink[dependency] = visited++;
+						stack.add(dependency);
+						inStack.set(dependency);
+						callStack.add(dependency);
+					} else if (inStack.get(dependency)) {
+						lowLink[project] = Math.min(lowLink[project], order[dependency]);
+					}
+
+					continue;
+				}
+
+				callStack.removeLast();
+				if (callStack.size() > 0) {
+					int parent = callStack.last();
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[project]);
+				}
+
+				// Not the root of a component
+				if (lowLink[project] != order[project]) {
+					continue;
+				}
+
+				BitSet component = new BitSet(numProjects);
+				int member;
+				do {
+					member = stack.last();
+					stack.removeLast();
+					inStack.clear(member);
+					component.set(member);
+				} while (member != project);
+
+				boolean selfDependency = false;
+				for (int dependency : dependencies[project]) {
+					selfDependency |= dependency == project;
+				}
+
+				if (component.cardinality() > 1 || selfDependency) {
+					List<String> cycle = new ArrayList<>();
+					for (int i = component.nextSetBit(0); i >= 0; i = component.nextSetBit(i + 1)) {
+						cycle.add(names.get(i));
+					}
+					cycles.add(cycle);
+				}
+			}
+		}
+
+		// Components are found in reverse topological order
+		Collections.sort(cycles, (cycle1, cycle2) -> Integer.compare(indexes.get(cycle1.get(0)),
+				indexes.get(cycle2.get(0))));
+
+		return cycles;
+	}
+
+	/**
+	 * A dependency path that starts and ends in the first project of the given cycle, going through the direct
+	 * dependencies of the projects of the cycle (e.g., [A, B, C, A]).
+	 *
+	 * @param cycle
+	 *            the projects of a cycle, as returned by {@link #getCycles(Collection)}
+	 * @return
+	 */
+	public List<String> getCyclePath(List<String> cycle) {
+		Map<String, Integer> indexes = new HashMap<>();
+		for (int i = 0; i < cycle.size(); i++) {
+			indexes.put(cycle.get(i), i);
+		}
+
+		// Breadth-first search, gives the shortest path back to the first project
+		int[] previous = new int[cycle.size()];
+		Arrays.fill(previous, -1);
+		Deque<Integer> queue = new ArrayDeque<>();
+		queue.add(0);
+
+		while (!queue.isEmpty()) {
+			int project = queue.poll();
+
+			for (int dependency : getDependencies(cycle.get(project), indexes)) {
+				if (dependency == 0) {
+					List<String> path = new ArrayList<>();
+					path.add(cycle.get(0));
+					for (int i = project; i != 0; i = previous[i]) {
+						path.add(cycle.get(i));
+					}
+					path.add(cycle.get(0));
+
+					Collections.reverse(path);
+					return path;
+				}
+
+				if (previous[dependency] == -1) {
+					previous[dependency] = project;
+					queue.add(dependency);
+				}
+			}
+		}
+
+		throw new RuntimeException("Projects " + cycle + " are not a dependency cycle");
+	}
+
+	/**
+	 * The direct dependencies of a project that are in the given map, as the values of the map.
+	 */
+	private int[] getDependencies(String projectName, Map<String, Integer> indexes) {
+		IntList dependencies = new IntList();
+		for (String dependency : classpaths.apply(projectName).getDependencies()) {
+			Integer index = indexes.get(dependency);
+			if (index != null) {
+				dependencies.add(index);
+			}
+		}
+
+		return dependencies.toArray();
+	}
+
+	/**
+	 * The projects and JARs of a transitive closure, as ids in the order they were first found.
+	 */
+	public class Closure {
+		// Projects that were visited, including projects without an output folder
+		private final BitSet visited;
+		// Projects that have an output folder
+		private final int[] outputs;
+		private final int[] jarIds;
+		// Projects of outputs, in the order of their output folders, computed when first needed
+		private volatile int[] folderOrder;
+
+		private Closure(BitSet visited, int[] outputs, int[] jarIds) {
+			this.visited = visited;
+			this.outputs = outputs;
+			this.jarIds = jarIds;
+			this.folderOrder = null;
+		}
+
+		/**
+		 *
+		 * @return the ids of the projects that have an output folder, in order
+		 */
+		public int[] getProjectIds() {
+			return outputs.clone();
+		}
+
+		/**
+		 *
+		 * @return the ids of the JARs, in order
+		 */
+		public int[] getJarIds() {
+			return jarIds.clone();
+		}
+
+		/**
+		 *
+		 * @return the names of the projects that have an output folder, in order
+		 */
+		public List<String> getProjects() {
+			return projects.view(outputs);
+		}
+
+		/**
+		 *
+		 * @return the JAR files, in order
+		 */
+		public List<File> getJars() {
+			return jars.view(jarIds);
+		}
+
+		/**
+		 * The projects that have an output folder, in the order of {@link #getOutputFolders()}.
+		 *
+		 * @return a view of the ids of this closure, without copies of the names
+		 */
+		public List<String> getOutputProjects() {
+			return projects.view(getFolderOrder());
+		}
+
+		/**
+		 * The output folders of the projects, in the order the generator has always used for the folders of a
+		 * classpath (the iteration order of a map from project names to folders).
+		 *
+		 * @return a view of the ids of this closure, folders are the instances of the parsed .classpath files
+		 */
+		public List<File> getOutputFolders() {
+			List<String> outputProjects = getOutputProjects();
+
+			return new AbstractList<File>() {
+				@Override
+				public File get(int index) {
+					return classpaths.apply(outputProjects.get(index)).getOutputFolder();
+				}
+
+				@Override
+				public int size() {
+					return outputProjects.size();
+				}
+			};
+		}
+
+		private int[] getFolderOrder() {
+			int[] order = folderOrder;
+			if (order != null) {
+				return order;
+			}
+
+			// Same capacity as a copy of a map with the same size, which gives the same iteration order. The map is
+			// only needed to find the order, only the ids are kept
+			Map<String, Integer> projectIds = new HashMap<>((int) (outputs.length / 0.75f + 1.0f));
+			for (int id : outputs) {
+				projectIds.put(projects.get(id), id);
+			}
+
+			order = new int[projectIds.size()];
+			int index = 0;
+			for (int id : projectIds.values()) {
+				order[index++] = id;
+			}
+
+			folderOrder = order;
+			return order;
+		}
+	}
+
+	private static class PartialClosure {
+		private final Closure closure;
+		// Shallowest position in the current path that is part of a cycle with this project
+		private final int lowLink;
+
+		public PartialClosure(Closure closure, int lowLink) {
+			this.closure = closure;
+			this.lowLink = lowLink;
+		}
+	}
+
+	/**
+	 * Builds the transitive closure of a project by merging the memoized closures of its dependencies, in the order
+	 * the entries appear in the .classpath file.
+	 *
+	 * <p>
+	 * Projects that are part of a dependency cycle which is not closed by the project itself have an incomplete
+	 * closure, which is not memoized.
+	 *
+	 * @param projectName
+	 * @param path
+	 *            the ids of the projects currently being visited
+	 * @param inPath
+	 *            the same ids as path, for constant time lookups
+	 * @return
+	 */
+	private PartialClosure buildClosure(String projectName, IntList path, BitSet inPath) {
+		Closure memoized = closures.get(projectName);
+		if (memoized != null) {
+			return new PartialClosure(memoized, Integer.MAX_VALUE);
+		}
+
+		ProjectClasspath projectClasspath = classpaths.apply(projectName);
+		int projectId = projects.getId(projectName);
+
+		int depth = path.size();
+		path.add(projectId);
+		inPath.set(projectId);
+
+		BitSet visited = new BitSet();
+		List<int[]> dependencyJarIds = new ArrayList<>();
+		BitSet addedOutputs = new BitSet();
+		BitSet addedJars = new BitSet();
+		IntList outputs = new IntList();
+		IntList jarIds = new IntList();
+
+		visited.set(projectId);
+		int lowLink = Integer.MAX_VALUE;
+
+		for (ProjectClasspath.Entry entry : projectClasspath.getEntries()) {
+			switch (entry.getKind()) {
+			case JARS:
+				for (File jar : entry.getJars()) {
+					add(jars.getId(jar), addedJars, jarIds);
+				}
+				break;
+			case OUTPUT:
+				add(projectId, addedOutputs, outputs);
+				break;
+			case PROJECT:
+				String dependency = entry.getProject();
+				int dependencyId = projects.getId(dependency);
+
+				// Dependency cycle
+				if (inPath.get(dependencyId)) {
+					lowLink = Math.min(lowLink, path.indexOf(dependencyId));
+					break;
+				}
+
+				// Already added through another dependency
+				if (visited.get(dependencyId)) {
+					break;
+				}
+
+				PartialClosure partial = buildClosure(dependency, path, inPath);
+				lowLink = Math.min(lowLink, partial.lowLink);
+
+				visited.or(partial.closure.visited);
+				for (int id : partial.closure.outputs) {
+					add(id, addedOutputs, outputs);
+				}
+				for (int id : partial.closure.jarIds) {
+					add(id, addedJars, jarIds);
+				}
+				dependencyJarIds.add(partial.closure.jarIds);
+				break;
+			default:
+				throw new RuntimeException("Case not defined:" + entry.getKind());
+			}
+		}
+
+		path.removeLast();
+		inPath.clear(projectId);
+
+		Closure closure = new Closure(visited, outputs.toArray(), share(jarIds, dependencyJarIds));
+
+		if (lowLink >= depth) {
+			Closure previous = closures.putIfAbsent(projectName, closure);
+			if (previous != null) {
+				closure = previous;
+			}
+		}
+
+		return new PartialClosure(closure, lowLink);
+	}
+
+	/**
+	 * Projects that do not add JARs of their own (e.g., a chain of projects) usually have the same JARs as one of their
+	 * dependencies, in that case the array of the dependency is used instead of a copy.
+	 */
+	private static int[] share(IntList ids, List<int[]> candidates) {
+		for (int[] candidate : candidates) {
+			if (ids.equalsArray(candidate)) {
+				return candidate;
+			}
+		}
+
+		return ids.toArray();
+	}
+
+	private static void add(int id, BitSet added, IntList ids) {
+		if (added.get(id)) {
+			return;
+		}
+
+		added.set(id);
+		ids.add(id);
+	}
+
+	/**
+	 * Assigns consecutive ids to values. Ids are never reused, and can be read concurrently with new assignments.
+	 */
+	private static class Ids<T> {
+		private final Map<T, Integer> ids;
+		private volatile Object[] values;
+		private int size;
+
+		public Ids() {
+			this.ids = new ConcurrentHashMap<>();
+			this.values = new Object[64];
+			this.size = 0;
+		}
+
+		public int getId(T value) {
+			Integer id = ids.get(value);
+			if (id != null) {
+				return id;
+			}
+
+			synchronized (this) {
+				id = ids.get(value);
+				if (id != null) {
+					return id;
+				}
+
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+
+				id = size;
+				values[id] = value;
+				size++;
+
+				// Publishes the value
+				ids.put(value, id);
+				return id;
+			}
+		}
+
+		public synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * The value with the given id, which must have been assigned.
+		 *
+		 * @param id
+		 * @return
+		 */
+		@SuppressWarnings("unchecked")
+		public T get(int id) {
+			return (T) values[id];
+		}
+
+		/**
+		 * A list backed by the given ids. All ids must have been assigned before calling this method.
+		 *
+		 * @param idArray
+		 * @return
+		 */
+		public List<T> view(int[] idArray) {
+			return new IdList<>(idArray, values);
+		}
+	}
+
+	private static class IdList<T> extends AbstractList<T> implements RandomAccess {
+		private final int[] ids;
+		private final Object[] values;
+
+		public IdList(int[] ids, Object[] values) {
+			this.ids = ids;
+			this.values = values;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(int index) {
+			return (T) values[ids[index]];
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+	}
+
+	private static class IntList {
+		private int[] data;
+		private int size;
+
+		public IntList() {
+			this.data = new int[16];
+			this.size = 0;
+		}
+
+		public void add(int value) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+
+			data[size++] = value;
+		}
+
+		public void removeLast() {
+			size--;
+		}
+
+		public int last() {
+			return data[size - 1];
+		}
+
+		public int indexOf(int value) {
+			for (int i = 0; i < size; i++) {
+				if (data[i] == value) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean equalsArray(int[] array) {
+			if (array.length != size) {
+				return false;
+			}
+
+			for (int i = 0; i < size; i++) {
+				if (data[i] != array[i]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		public int[] toArray() {
+			return Arrays.copyOf(data, size);
+		}
+	}
+}
@@ -0,0 +1,455 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import pt.up.fe.specs.antbuilder.BuildUtils;
+import pt.up.fe.specs.antbuilder.JUnitShards;
+import pt.up.fe.specs.antbuilder.JUnitShards.TestFile;
+import pt.up.fe.specs.antbuilder.TestHistory;
+import pt.up.fe.specs.antbuilder.classpath.ClasspathFiles;
+import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+import pt.up.fe.specs.library.Log;
+
+/**
+ * Runs the build of each project (compile, copy resources, test) as a graph of tasks on a work-stealing pool.
+ *
+ * <p>
+ * A task becomes ready when all tasks it depends on finished. Among the ready tasks, runs first the one with the
+ * longest chain of remaining work after it (the critical path), so that long dependency chains start as soon as
+ * possible. The work of each task is its duration in previous runs or, if unknown, is estimated from its number of
+ * files.
+ *
+ * <p>
+ * Tasks of projects that depend on a project that failed to compile are skipped.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class BuildScheduler {
+
+	public static final String HISTORY_FILENAME = ".antbuilder.taskhistory";
+
+	private static final String JUNIT_RUNNER = "org.junit.runner.JUnitCore";
+
+	private enum TaskKind {
+		COMPILE,
+		COPY,
+		TEST;
+
+		public String getKey(String projectName) {
+			return name().toLowerCase() + ":" + projectName;
+		}
+	}
+
+	private static class Task implements Comparable<Task> {
+		private final TaskKind kind;
+		private final String projectName;
+		private final int files;
+		private final List<Task> successors;
+		private final AtomicInteger pendingDependencies;
+
+		private double work;
+		// Work of this task plus the longest chain of work after it
+		private double priority;
+		private volatile boolean skip;
+
+		public Task(TaskKind kind, String projectName, int files) {
+			this.kind = kind;
+			this.projectName = projectName;
+			this.files = files;
+			this.successors = new ArrayList<>();
+			this.pendingDependencies = new AtomicInteger();
+			this.priority = -1;
+		}
+
+		public void addSuccessor(Task successor) {
+			successors.add(successor);
+			successor.pendingDependencies.incrementAndGet();
+		}
+
+		public String getKey() {
+			return kind.getKey(projectName);
+		}
+
+		@Override
+		public int compareTo(Task o) {
+			// Highest priority first
+			return Double.compare(o.priority, priority);
+		}
+
+		@Override
+		public String toString() {
+			return getKey();
+		}
+	}
+
+	private final ClasspathParser parser;
+	private final int threads;
+	private final TestHistory history;
+	private final List<File> junitClasspath;
+	private final File reportsFolder;
+	private final Map<String, List<String>> compileUnits;
+
+	// The file manager of each builder is not thread-safe, each thread uses its own
+	private final ThreadLocal<InProcessBuilder> builders;
+	private final ConcurrentLinkedQueue<InProcessBuilder> createdBuilders;
+
+	private final Map<String, Double> durations;
+
+	/**
+	 *
+	 * @param parser
+	 * @param threads
+	 * @param history
+	 *            durations of the tasks in previous runs, updated with the durations of this run
+	 * @param junitClasspath
+	 *            the jars needed to run JUnit tests. If empty, tests are not run
+	 * @param reportsFolder
+	 *            the folder where the output of the tests of each project is written
+	 * @param compileUnits
+	 *            maps each project of a dependency cycle to the projects of the cycle, which are compiled together
+	 */
+	public BuildScheduler(ClasspathParser parser, int threads, TestHistory history, List<File> junitClasspath,
+			File reportsFolder, Map<String, List<String>> compileUnits) {
+
+		this.parser = parser;
+		this.threads = threads;
+		this.history = history;
+		this.junitClasspath = junitClasspath;
+		this.reportsFolder = reportsFolder;
+		this.compileUnits = compileUnits;
+
+		this.createdBuilders = new ConcurrentLinkedQueue<>();
+		this.builders = ThreadLocal.withInitial(() -> {
+			InProcessBuilder builder = new InProcessBuilder(parser);
+			createdBuilders.add(builder);
+			return builder;
+		});
+		this.durations = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Builds the given projects.
+	 *
+	 * @param projectNames
+	 * @return true if all tasks succeeded
+	 */
+	public boolean run(List<String> projectNames) {
+		List<Task> tasks = buildTasks(projectNames);
+		setWork(tasks);
+		for (Task task : tasks) {
+			setPriority(task);
+		}
+
+		PriorityBlockingQueue<Task> ready = new PriorityBlockingQueue<>();
+		CountDownLatch remaining = new CountDownLatch(tasks.size());
+		AtomicBoolean success = new AtomicBoolean(true);
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long tic = System.nanoTime();
+		try {
+			for (Task task : tasks) {
+				if (task.pendingDependencies.get() == 0) {
+					ready.add(task);
+				}
+			}
+
+			// Each runner executes the ready task with highest priority, not necessarily the one that made it ready
+			int initialTasks = ready.size();
+			for (int i = 0; i < initialTasks; i++) {
+				pool.execute(() -> runNext(pool, ready, remaining, success));
+			}
+
+			remaining.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while building projects", e);
+		} finally {
+			pool.shutdown();
+			for (InProcessBuilder builder : createdBuilders) {
+				builder.close();
+			}
+		}
+
+		for (Map.Entry<String, Double> entry : durations.entrySet()) {
+			history.put(entry.getKey(), entry.getValue());
+		}
+
+		Log.info("Ran " + tasks.size() + " tasks of " + projectNames.size() + " projects in "
+				+ (System.nanoTime() - tic) / 1_000_000 + "ms using " + threads + " threads");
+
+		return success.get();
+	}
+
+	private void runNext(ForkJoinPool pool, PriorityBlockingQueue<Task> ready, CountDownLatch remaining,
+			AtomicBoolean success) {
+
+		Task task = ready.poll();
+		if (task == null) {
+			return;
+		}
+
+		try {
+			if (task.skip) {
+				Log.info("[" + task.projectName + "] Skipping " + task.kind.name().toLowerCase()
+						+ ", a dependency failed");
+			} else if (!execute(task)) {
+				success.set(false);
+
+				// Tests failing do not prevent other projects from building
+				if (task.kind != TaskKind.TEST) {
+					for (Task successor : task.successors) {
+						successor.skip = true;
+					}
+				}
+			}
+		} finally {
+			for (Task successor : task.successors) {
+				if (task.skip) {
+					successor.skip = true;
+				}
+
+				if (successor.pendingDependencies.decrementAndGet() == 0) {
+					ready.add(successor);
+					pool.execute(() -> runNext(pool, ready, remaining, success));
+				}
+			}
+
+			remaining.countDown();
+		}
+	}
+
+	private boolean execute(Task task) {
+		long tic = System.nanoTime();
+
+		try {
+			switch (task.kind) {
+			case COMPILE:
+				builders.get().compile(BuildUtils.getCompileUnit(task.projectName, compileUnits));
+				break;
+			case COPY:
+				builders.get().copyResources(task.projectName);
+				break;
+			case TEST:
+				if (!runTests(task.projectName)) {
+					return false;
+				}
+				break;
+			default:
+				throw new RuntimeException("Case not defined:" + task.kind);
+			}
+		} catch (RuntimeException e) {
+			Log.warn("[" + task.projectName + "] " + e.getMessage());
+			return false;
+		}
+
+		durations.put(task.getKey(), (System.nanoTime() - tic) / 1e9);
+		return true;
+	}
+
+	/**
+	 * Runs the test classes of the project in a new JVM.
+	 */
+	private boolean runTests(String projectName) {
+		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+
+		List<String> testClasses = JUnitShards.getTestFiles(classpathFiles).stream()
+				.map(TestFile::getClassName)
+				.collect(Collectors.toList());
+
+		if (testClasses.isEmpty()) {
+			return true;
+		}
+
+		List<File> classpath = new ArrayList<>();
+		classpath.add(new File(BuildUtils.getBinFolder(classpathFiles)));
+		classpath.addAll(builders.get().getClasspath(classpathFiles));
+		classpath.addAll(junitClasspath);
+
+		List<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+		command.add("-cp");
+		command.add(classpath.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator)));
+		command.add(JUNIT_RUNNER);
+		command.addAll(testClasses);
+
+		File output = new File(reportsFolder, projectName + ".txt");
+
+		try {
+			Process process = new ProcessBuilder(command)
+					.directory(classpathFiles.getProjectFolder())
+					.redirectErrorStream(true)
+					.redirectOutput(output)
+					.start();
+
+			int exitCode = process.waitFor();
+			if (exitCode != 0) {
+				Log.warn("[" + projectName + "] Tests failed, check '" + output + "'");
+				return false;
+			}
+
+			Log.info("[" + projectName + "] Ran " + testClasses.size() + " test classes");
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not run tests of project '" + projectName + "'", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while running tests of project '" + projectName + "'", e);
+		}
+	}
+
+	/**
+	 * Creates the tasks of each project. Compilation depends on the compilation of the projects it depends on,
+	 * copying resources on the compilation of the project (which cleans the bin folder), and tests on the resources of
+	 * the project and of the projects it depends on.
+	 *
+	 * <p>
+	 * The projects of a compile unit share a single compilation task, of the first project of the unit.
+	 */
+	private List<Task> buildTasks(List<String> projectNames) {
+		// Dependencies inside cycles are ignored, as in the parallel 'compile' target. Projects of a compile unit are in
+		// the same layer
+		Map<String, Integer> levels = new HashMap<>();
+		List<List<String>> layers = BuildUtils.getCompileLayers(projectNames, parser, compileUnits);
+		for (int i = 0; i < layers.size(); i++) {
+			for (String projectName : layers.get(i)) {
+				levels.put(projectName, i);
+			}
+		}
+
+		boolean runTests = !junitClasspath.isEmpty();
+
+		Map<String, Task> compileTasks = new HashMap<>();
+		Map<String, Task> copyTasks = new HashMap<>();
+		List<Task> tasks = new ArrayList<>();
+
+		for (String projectName : projectNames) {
+			List<String> unitProjects = BuildUtils.getCompileUnit(projectName, compileUnits);
+			if (!unitProjects.get(0).equals(projectName)) {
+				continue;
+			}
+
+			int sources = 0;
+			for (String unitProject : unitProjects) {
+				sources += InProcessBuilder.getFiles(parser.getClasspath(unitProject), true).size();
+			}
+
+			Task compile = new Task(TaskKind.COMPILE, projectName, sources);
+			for (String unitProject : unitProjects) {
+				compileTasks.put(unitProject, compile);
+			}
+			tasks.add(compile);
+		}
+
+		for (String projectName : projectNames) {
+			Task compile = compileTasks.get(projectName);
+
+			ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+			Task copy = new Task(TaskKind.COPY, projectName, InProcessBuilder.getFiles(classpathFiles, false).size());
+			compile.addSuccessor(copy);
+
+			copyTasks.put(projectName, copy);
+			tasks.add(copy);
+		}
+
+		for (String projectName : projectNames) {
+			int level = levels.get(projectName);
+
+			Task test = null;
+			if (runTests) {
+				test = new Task(TaskKind.TEST, projectName,
+						JUnitShards.getTestFiles(parser.getClasspath(projectName)).size());
+				copyTasks.get(projectName).addSuccessor(test);
+				tasks.add(test);
+			}
+
+			List<String> unitProjects = BuildUtils.getCompileUnit(projectName, compileUnits);
+			for (String parent : parser.getClasspath(projectName).getParentProjects()) {
+				// Compiled by the same task, tests still need the resources of the other projects of the unit
+				if (unitProjects.contains(parent)) {
+					if (test != null && levels.containsKey(parent)) {
+						copyTasks.get(parent).addSuccessor(test);
+					}
+					continue;
+				}
+
+				Integer parentLevel = levels.get(parent);
+				if (parentLevel == null || parentLevel >= level) {
+					continue;
+				}
+
+				compileTasks.get(parent).addSuccessor(compileTasks.get(projectName));
+				if (test != null) {
+					copyTasks.get(parent).addSuccessor(test);
+				}
+			}
+		}
+
+		return tasks;
+	}
+
+	/**
+	 * Uses the durations of previous runs. Tasks without a previous duration are estimated from their number of files,
+	 * using the average time per file of the tasks with a previous duration.
+	 */
+	private void setWork(List<Task> tasks) {
+		Map<String, Double> previousDurations = history.getDurations();
+
+		double knownDuration = 0;
+		long knownFiles = 0;
+		for (Task task : tasks) {
+			Double duration = previousDurations.get(task.getKey());
+			if (duration != null) {
+				knownDuration += duration;
+				knownFiles += task.files;
+			}
+		}
+
+		double secondsPerFile = knownFiles > 0 ? knownDuration / knownFiles : 1.0;
+
+		for (Task task : tasks) {
+			Double duration = previousDurations.get(task.getKey());
+			task.work = duration != null ? duration : secondsPerFile * Math.max(1, task.files);
+		}
+	}
+
+	private static double setPriority(Task task) {
+		if (task.priority >= 0) {
+			return task.priority;
+		}
+
+		double maxSuccessor = 0;
+		for (Task successor : task.successors) {
+			maxSuccessor = Math.max(maxSuccessor, setPriority(successor));
+		}
+
+		task.priority = task.work + maxSuccessor;
+		return task.priority;
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import pt.up.fe.specs.antbuilder.BuildUtils;
+import pt.up.fe.specs.antbuilder.classpath.ClasspathFiles;
+import pt.up.fe.specs.antbuilder.classpath.ClasspathParser;
+import pt.up.fe.specs.library.IoUtils;
+import pt.up.fe.specs.library.Log;
+
+/**
+ * Compiles the projects inside the current JVM, with the compiler from javax.tools, instead of generating and running
+ * an ANT script.
+ *
+ * <p>
+ * All projects are compiled with the same file manager, so each jar in the classpath of several projects is only
+ * opened once per run. The file manager is not thread-safe, projects are compiled one at a time.
+ *
+ * <p>
+ * Produces the same output as the 'compile' target of the generated build.xml: the bin folder of each project is
+ * cleaned, the sources are compiled to it, and the other files in the source folders are copied to it.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class InProcessBuilder implements AutoCloseable {
+
+	// Same options as the javac task of compile.xml.template
+	private static final List<String> OPTIONS = Arrays.asList("-source", "1.8", "-target", "1.8");
+	private static final Charset ENCODING = Charset.forName("Cp1252");
+
+	private static final String JAVA_EXTENSION = ".java";
+
+	private final ClasspathParser parser;
+	private final JavaCompiler compiler;
+	private final StandardJavaFileManager fileManager;
+
+	public InProcessBuilder(ClasspathParser parser) {
+		this.parser = parser;
+		this.compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new RuntimeException("Could not find a Java compiler, check if the generator is running on a JDK");
+		}
+
+		this.fileManager = compiler.getStandardFileManager(null, Locale.getDefault(), ENCODING);
+	}
+
+	/**
+	 * Compiles the given projects, in an order where each project is compiled after the projects it depends on.
+	 *
+	 * @param projectNames
+	 * @param compileUnits
+	 *            maps each project of a dependency cycle to the projects of the cycle, which are compiled together
+	 */
+	public void build(List<String> projectNames, Map<String, List<String>> compileUnits) {
+		List<List<String>> layers = BuildUtils.getCompileLayers(projectNames, parser, compileUnits);
+
+		long tic = System.nanoTime();
+		for (List<String> layer : layers) {
+			for (String projectName : layer) {
+				List<String> unitProjects = BuildUtils.getCompileUnit(projectName, compileUnits);
+				if (unitProjects.get(0).equals(projectName)) {
+					compile(unitProjects);
+				}
+			}
+
+			for (String projectName : layer) {
+				copyResources(projectName);
+			}
+		}
+
+		Log.info("Compiled " + projectNames.size() + " projects in " + (System.nanoTime() - tic) / 1_000_000 + "ms");
+	}
+
+	/**
+	 * Cleans the bin folder of the project and compiles its sources. Projects it depends on must have been compiled
+	 * before.
+	 *
+	 * @param projectName
+	 */
+	public void compile(String projectName) {
+		compile(Collections.singletonList(projectName));
+	}
+
+	/**
+	 * Compiles the sources of the projects of a compile unit (see {@link BuildUtils#getCompileUnit(String, Map)}) in a
+	 * single compilation, to the bin folder of the first project, as the compile target of the unit in build.xml. The
+	 * bin folders of all projects of the unit are cleaned.
+	 *
+	 * @param unitProjects
+	 */
+	public void compile(List<String> unitProjects) {
+		String projectName = unitProjects.get(0);
+		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+		File binFolder = new File(BuildUtils.getBinFolder(classpathFiles));
+
+		List<File> sources = new ArrayList<>();
+		for (String unitProject : unitProjects) {
+			ClasspathFiles unitClasspath = parser.getClasspath(unitProject);
+
+			IoUtils.deleteFolderContents(new File(BuildUtils.getBinFolder(unitClasspath)));
+			sources.addAll(getFiles(unitClasspath, true));
+		}
+
+		if (sources.isEmpty()) {
+			Log.info("[" + projectName + "] No sources to compile");
+			return;
+		}
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		boolean success;
+		try {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(binFolder));
+			fileManager.setLocation(StandardLocation.CLASS_PATH, getClasspath(classpathFiles));
+
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(sources);
+			success = compiler.getTask(null, fileManager, diagnostics, OPTIONS, null, units).call();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not set the locations of project '" + projectName + "'", e);
+		}
+
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				Log.warn("[" + projectName + "] " + diagnostic);
+			}
+		}
+
+		if (!success) {
+			throw new RuntimeException("Compilation of project '" + projectName + "' failed");
+		}
+
+		Log.info("[" + projectName + "] Compiled " + sources.size() + " source files");
+	}
+
+	/**
+	 * Copies the files in the source folders of the project that are not Java sources to its bin folder.
+	 *
+	 * @param projectName
+	 */
+	public void copyResources(String projectName) {
+		ClasspathFiles classpathFiles = parser.getClasspath(projectName);
+		Path binFolder = new File(BuildUtils.getBinFolder(classpathFiles)).toPath();
+
+		for (String source : classpathFiles.getSourceFolders()) {
+			Path sourceFolder = new File(classpathFiles.getProjectFolder(), source).toPath();
+
+			for (File resource : getFiles(sourceFolder, false)) {
+				Path destination = binFolder.resolve(sourceFolder.relativize(resource.toPath()));
+				try {
+					Files.createDirectories(destination.getParent());
+					Files.copy(resource.toPath(), destination, StandardCopyOption.REPLACE_EXISTING);
+				} catch (IOException e) {
+					throw new RuntimeException("Could not copy '" + resource + "' to '" + destination + "'", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The jars of the project and the bin folders of the projects it depends on, as in
+	 * {@link BuildUtils#buildFileset(String, ClasspathParser)}.
+	 */
+	List<File> getClasspath(ClasspathFiles classpathFiles) {
+		List<File> classpath = new ArrayList<>(classpathFiles.getJarFiles());
+
+		for (String parent : classpathFiles.getParentProjects()) {
+			classpath.add(new File(BuildUtils.getBinFolder(parser.getClasspath(parent))));
+		}
+
+		return classpath;
+	}
+
+	static List<File> getFiles(ClasspathFiles classpathFiles, boolean javaFiles) {
+		List<File> files = new ArrayList<>();
+
+		for (String source : classpathFiles.getSourceFolders()) {
+			files.addAll(getFiles(new File(classpathFiles.getProjectFolder(), source).toPath(), javaFiles));
+		}
+
+		return files;
+	}
+
+	/**
+	 *
+	 * @param folder
+	 * @param javaFiles
+	 *            if true, returns the Java sources, otherwise returns all other files
+	 * @return
+	 */
+	private static List<File> getFiles(Path folder, boolean javaFiles) {
+		if (!Files.isDirectory(folder)) {
+			return new ArrayList<>();
+		}
+
+		try (Stream<Path> paths = Files.walk(folder)) {
+			return paths.filter(Files::isRegularFile)
+					.filter(path -> path.toString().endsWith(JAVA_EXTENSION) == javaFiles)
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not list files of folder '" + folder + "'", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			fileManager.close();
+		} catch (IOException e) {
+			Log.warn("Could not close Java file manager", e);
+		}
+	}
+}
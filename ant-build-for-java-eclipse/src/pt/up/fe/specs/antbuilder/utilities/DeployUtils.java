@@ -79,9 +79,10 @@ public class DeployUtils {
 		}
 		*/
 		// Get canonical version, to avoid problems with Linux systems
-		jarFile = IoUtils.getCanonicalFile(jarFile);
+		// Resolved once per jar, jars are shared by many projects
+		jarFile = FileCache.getCanonicalFile(jarFile);
 
-		template = template.replace("<FOLDER>", IoUtils.getCanonicalFile(jarFile).getParentFile().getPath());
+		template = template.replace("<FOLDER>", jarFile.getParentFile().getPath());
 		template = template.replace("<FILE>", jarFile.getName());
 
 		return template;
@@ -142,6 +143,17 @@ public class DeployUtils {
 		return outListener;
 	}
 
+	/**
+	 * Listener that records the start, end, thread and result of every ANT target and task, and writes them to the
+	 * given folder when the build finishes (see {@link MetricsListener}).
+	 * 
+	 * @param reportsFolder
+	 * @return
+	 */
+	public static BuildListener newMetricsListener(File reportsFolder) {
+		return new MetricsListener(reportsFolder);
+	}
+
 	public static File getTempFolder() {
 		File tempFolder = IoUtils.getFolder(IoUtils.getWorkingDir(), TEMPORARY_FOLDER);
 
@@ -232,8 +244,17 @@ public class DeployUtils {
 		ProjectHelper.configureProject(project, antScript);
 
 		project.addBuildListener(DeployUtils.newStdoutListener());
-
-		// Run script
-		project.executeTarget(project.getDefaultTarget());
+		project.addBuildListener(DeployUtils.newMetricsListener(IoUtils.getFolder(antScript.getAbsoluteFile()
+				.getParentFile(), "reports")));
+
+		// Run script, build events let the listeners write their results
+		project.fireBuildStarted();
+		try {
+			project.executeTarget(project.getDefaultTarget());
+		} catch (RuntimeException e) {
+			project.fireBuildFinished(e);
+			throw e;
+		}
+		project.fireBuildFinished(null);
 	}
 }
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import pt.up.fe.specs.antbuilder.classpath.ClasspathEntry;
+
+/**
+ * Reads the Eclipse metadata files (.project, .classpath) with a streaming parser, without building a document tree,
+ * and the .location files of a workspace as bytes.
+ *
+ * <p>
+ * Methods are thread-safe.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class EclipseMetadataReader {
+
+	private static final String TAG_PROJECT_DESCRIPTION = "projectDescription";
+	private static final String TAG_NAME = "name";
+
+	private static final String ATTR_KIND = "kind";
+	private static final String ATTR_PATH = "path";
+	private static final String ATTR_COMBINE_ACCESS_RULES = "combineaccessrules";
+
+	private static final byte[] LOCATION_MARKER = "URI//file:/".getBytes(StandardCharsets.US_ASCII);
+
+	// .location files are usually a few hundred bytes, larger files are mapped instead
+	private static final int LOCATION_BUFFER_BYTES = 16 * 1024;
+	private static final ThreadLocal<ByteBuffer> LOCATION_BUFFER = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocateDirect(LOCATION_BUFFER_BYTES));
+
+	// Configured once, creating readers from a configured factory is thread-safe
+	private static final XMLInputFactory FACTORY = newFactory();
+
+	private static XMLInputFactory newFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	/**
+	 * The contents of the element 'projectDescription/name' of a .project file.
+	 *
+	 * @param projectFile
+	 * @return the name of the project, or null if the file does not have a name
+	 */
+	public static String getProjectName(File projectFile) {
+		try (InputStream stream = newStream(projectFile)) {
+			return getProjectName(projectFile, stream);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read project file '" + projectFile + "'", e);
+		}
+	}
+
+	/**
+	 * Same as {@link #getProjectName(File)}, for the contents of the file that were already read.
+	 *
+	 * @param projectFile
+	 *            the file the contents were read from, used in error messages
+	 * @param contents
+	 * @return
+	 */
+	public static String getProjectName(File projectFile, byte[] contents) {
+		return getProjectName(projectFile, new ByteArrayInputStream(contents));
+	}
+
+	private static String getProjectName(File projectFile, InputStream stream) {
+		try {
+			XMLStreamReader reader = FACTORY.createXMLStreamReader(stream);
+			try {
+				return getProjectName(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Could not parse project file '" + projectFile + "'", e);
+		}
+	}
+
+	private static String getProjectName(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 0;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				continue;
+			}
+
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			depth++;
+
+			if (depth == 1 && !reader.getLocalName().equals(TAG_PROJECT_DESCRIPTION)) {
+				return null;
+			}
+
+			if (depth == 2 && reader.getLocalName().equals(TAG_NAME)) {
+				// Reads until the end of the element
+				return reader.getElementText().trim();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * The children of the root element of a .classpath file, in the order they appear.
+	 *
+	 * @param classpathFile
+	 * @return
+	 */
+	public static List<ClasspathEntry> getClasspathEntries(File classpathFile) {
+		try (InputStream stream = newStream(classpathFile)) {
+			return getClasspathEntries(classpathFile, stream);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read classpath file '" + classpathFile + "'", e);
+		}
+	}
+
+	/**
+	 * Same as {@link #getClasspathEntries(File)}, for the contents of the file that were already read.
+	 *
+	 * @param classpathFile
+	 *            the file the contents were read from, used in error messages
+	 * @param contents
+	 * @return
+	 */
+	public static List<ClasspathEntry> getClasspathEntries(File classpathFile, byte[] contents) {
+		return getClasspathEntries(classpathFile, new ByteArrayInputStream(contents));
+	}
+
+	private static List<ClasspathEntry> getClasspathEntries(File classpathFile, InputStream stream) {
+		try {
+			XMLStreamReader reader = FACTORY.createXMLStreamReader(stream);
+			try {
+				return getClasspathEntries(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Could not parse classpath file '" + classpathFile + "'", e);
+		}
+	}
+
+	private static List<ClasspathEntry> getClasspathEntries(XMLStreamReader reader) throws XMLStreamException {
+		List<ClasspathEntry> entries = new ArrayList<>();
+		int depth = 0;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				continue;
+			}
+
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			depth++;
+
+			// Children of the root element
+			if (depth == 2) {
+				entries.add(new ClasspathEntry(reader.getLocalName(),
+						reader.getAttributeValue(null, ATTR_KIND),
+						reader.getAttributeValue(null, ATTR_PATH),
+						reader.getAttributeValue(null, ATTR_COMBINE_ACCESS_RULES)));
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * The path of the project folder in a .location file of an Eclipse workspace, which is the text between the marker
+	 * "URI//file:/" (preceded by a 0 and another byte) and the next 0.
+	 *
+	 * <p>
+	 * The file is scanned as bytes, in a direct buffer of the current thread, or mapped if it does not fit the buffer.
+	 * Only the bytes of the path are decoded.
+	 *
+	 * @param locationFile
+	 * @return the path after "file:/", still encoded as an URI, or null if the file does not have a location
+	 */
+	public static String getLocationPath(File locationFile) {
+		try (FileChannel channel = FileChannel.open(locationFile.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			ByteBuffer buffer;
+			if (size > LOCATION_BUFFER_BYTES) {
+				buffer = channel.map(MapMode.READ_ONLY, 0, size);
+			} else {
+				buffer = LOCATION_BUFFER.get();
+				buffer.clear();
+				while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				}
+				buffer.flip();
+			}
+
+			return getLocationPath(buffer);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read location file '" + locationFile + "'", e);
+		}
+	}
+
+	private static String getLocationPath(ByteBuffer buffer) {
+		int limit = buffer.limit();
+
+		for (int i = 2; i + LOCATION_MARKER.length < limit; i++) {
+			if (buffer.get(i - 2) != 0 || !isLocationMarker(buffer, i)) {
+				continue;
+			}
+
+			int start = i + LOCATION_MARKER.length;
+			int end = start;
+			while (end < limit && buffer.get(end) != 0) {
+				end++;
+			}
+
+			// Path must not be empty, and must end with a 0
+			if (end == start || end == limit) {
+				continue;
+			}
+
+			byte[] path = new byte[end - start];
+			for (int j = 0; j < path.length; j++) {
+				path[j] = buffer.get(start + j);
+			}
+
+			return new String(path, StandardCharsets.UTF_8);
+		}
+
+		return null;
+	}
+
+	private static boolean isLocationMarker(ByteBuffer buffer, int index) {
+		for (int i = 0; i < LOCATION_MARKER.length; i++) {
+			if (buffer.get(index + i) != LOCATION_MARKER[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static InputStream newStream(File file) throws IOException {
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+}
@@ -15,30 +15,29 @@ package pt.up.fe.specs.antbuilder.utilities;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
-
-import org.w3c.dom.NodeList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
 
 import pt.up.fe.specs.library.IoUtils;
 import pt.up.fe.specs.library.Log;
-import pt.up.fe.specs.library.ParseUtils;
 import pt.up.fe.specs.library.PlatformUtils;
-import pt.up.fe.specs.library.XmlUtils;
 
 public class EclipseProjects {
 
-	private static final String[] CHAIN_PROJECT_NAME = { "projectDescription", "name" };
+	private static final String PROJECT_EXTENSION = "project";
 
 	private static final String PATH_PROJECTS = ".metadata/.plugins/org.eclipse.core.resources/.projects";
 	private static final String LOCATION_FILE = ".location";
 
-	private static final String REGEX = "\\x00.URI//file:/(.+?)\\x00";
-
 	/**
 	 * Maps the name of a project in the workspace to the corresponding project
 	 * folder.
@@ -50,31 +49,120 @@ public class EclipseProjects {
 	}
 
 	public static EclipseProjects newFromWorkspace(File workspace) {
+		return newFromWorkspace(workspace, 1);
+	}
+
+	/**
+	 * Same as {@link #newFromWorkspace(File)}, but reads the .location files of the projects concurrently, using the
+	 * given number of threads.
+	 * 
+	 * @param workspace
+	 * @param threads
+	 * @return
+	 */
+	public static EclipseProjects newFromWorkspace(File workspace, int threads) {
 
 		// Get projects folder
 		File projectsFolder = IoUtils.existingFolder(workspace, PATH_PROJECTS);
 
 		// Get folders, one for each project
 		List<File> projects = IoUtils.getFolders(projectsFolder);
-		Map<String, File> projectsFolders = buildProjectsMap(projects);
+		Map<String, File> projectsFolders = buildProjectsMap(projects, threads);
 
 		return new EclipseProjects(projectsFolders);
 	}
 
 	public static EclipseProjects newFromRepository(File repositoryFolder) {
-		// Find all folders that contain a .project files in repository folder
-		List<File> projectFiles = IoUtils.getFilesRecursive(repositoryFolder, "project");
+		return newFromRepository(repositoryFolder, 1);
+	}
 
-		// For testing
-		// XStreamUtils.write(new File("temp_files.xml"), projectFiles);
-		// List<File> projectFiles = (List<File>) XStreamUtils.read(new
-		// File("temp_files.xml"), List.class);
+	/**
+	 * Same as {@link #newFromRepository(File)}, but walks the folders and parses the .project files concurrently,
+	 * using the given number of threads.
+	 * 
+	 * <p>
+	 * The result, and the reported duplicated projects, are the same as the serial version.
+	 * 
+	 * @param repositoryFolder
+	 * @param threads
+	 * @return
+	 */
+	public static EclipseProjects newFromRepository(File repositoryFolder, int threads) {
+		return newFromRepository(repositoryFolder, threads, MetadataCache.newTransient());
+	}
 
-		Map<String, File> projectFolders = new HashMap<>();
-		for (File projectFile : projectFiles) {
-			// Get the name of the project
-			NodeList nodes = XmlUtils.getNodeList(projectFile);
-			String projectName = XmlUtils.getText(nodes, CHAIN_PROJECT_NAME);
+	/**
+	 * Same as {@link #newFromRepository(File, int)}, but reuses the names of the .project files that are in the given
+	 * cache.
+	 * 
+	 * @param repositoryFolder
+	 * @param threads
+	 * @param cache
+	 * @return
+	 */
+	public static EclipseProjects newFromRepository(File repositoryFolder, int threads, MetadataCache cache) {
+		if (threads < 2) {
+			// Find all folders that contain a .project files in repository folder
+			List<File> projectFiles = new ArrayList<>(IoUtils.getFilesRecursive(repositoryFolder,
+					PROJECT_EXTENSION));
+
+			// For testing
+			// XStreamUtils.write(new File("temp_files.xml"), projectFiles);
+			// List<File> projectFiles = (List<File>) XStreamUtils.read(new
+			// File("temp_files.xml"), List.class);
+
+			// Sort files, so that the result does not depend on the order of the file system
+			Collections.sort(projectFiles);
+
+			List<String> projectNames = new ArrayList<>();
+			for (File projectFile : projectFiles) {
+				projectNames.add(cache.getProjectName(projectFile));
+			}
+
+			return newFromProjectFiles(projectFiles, projectNames);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<File> projectFiles = pool.invoke(new ProjectFilesWalker(repositoryFolder));
+
+			Collections.sort(projectFiles);
+
+			// Parallel stream runs inside the pool, instead of the common pool
+			List<String> projectNames = pool.submit(() -> projectFiles.parallelStream()
+					.map(cache::getProjectName)
+					.collect(Collectors.toList()))
+					.get();
+
+			return newFromProjectFiles(projectFiles, projectNames);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while looking for projects in '" + repositoryFolder + "'", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not find projects in '" + repositoryFolder + "'", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * 
+	 * @param projectFiles
+	 *            sorted .project files
+	 * @param projectNames
+	 *            the name of each project file
+	 * @return
+	 */
+	private static EclipseProjects newFromProjectFiles(List<File> projectFiles, List<String> projectNames) {
+		Map<String, File> projectFolders = new LinkedHashMap<>();
+		for (int i = 0; i < projectFiles.size(); i++) {
+			File projectFile = projectFiles.get(i);
+			String projectName = projectNames.get(i);
+
+			if (projectName == null) {
+				Log.warn("Could not find the name of the project in '" + projectFile + "', ignoring it");
+				continue;
+			}
 
 			// Get parent folder
 			File projectFolder = projectFile.getParentFile();
@@ -83,66 +171,139 @@ public class EclipseProjects {
 						+ "' is not a folder.");
 			}
 
-			projectFolders.put(projectName, projectFolder);
+			File previousFolder = projectFolders.put(projectName, projectFolder);
+			if (previousFolder != null) {
+				Log.warn("Found more than one project with name '" + projectName + "' ('" + previousFolder + "' and '"
+						+ projectFolder + "'), using '" + projectFolder + "'");
+			}
 		}
 
 		return new EclipseProjects(projectFolders);
 	}
 
-	private static Map<String, File> buildProjectsMap(List<File> projects) {
-		Map<String, File> projectsFolders = new HashMap<>();
-		Pattern regex = Pattern.compile(REGEX);
+	/**
+	 * Finds the .project files inside a folder, visiting sub-folders in parallel.
+	 */
+	private static class ProjectFilesWalker extends RecursiveTask<List<File>> {
 
-		for (File project : projects) {
-			// Get .location file
-			File location = new File(project, LOCATION_FILE);
+		private static final long serialVersionUID = 1L;
 
-			// If .location does not exist, skip project (might be closed in
-			// Eclipse)
-			if (!location.isFile()) {
-				continue;
+		private final File folder;
+
+		public ProjectFilesWalker(File folder) {
+			this.folder = folder;
+		}
+
+		@Override
+		protected List<File> compute() {
+			File[] children = folder.listFiles();
+			if (children == null) {
+				return new ArrayList<>();
 			}
 
-			String locationContents = IoUtils.read(location);
-			// System.out.println("LOCATION FILE FOR " + project.getName() +
-			// "\n" + locationContents);
-			String projectFoldername = ParseUtils.getRegexGroup(locationContents, regex, 1);
+			List<File> projectFiles = new ArrayList<>();
+			List<ProjectFilesWalker> subTasks = new ArrayList<>();
+
+			for (File child : children) {
+				if (child.isDirectory()) {
+					ProjectFilesWalker subTask = new ProjectFilesWalker(child);
+					subTask.fork();
+					subTasks.add(subTask);
+					continue;
+				}
 
-			// Fix path if unix
-			if (PlatformUtils.isUnix()) {
-				projectFoldername = "/" + projectFoldername;
+				if (child.getName().endsWith("." + PROJECT_EXTENSION)) {
+					projectFiles.add(child);
+				}
 			}
 
-			if (projectFoldername == null) {
-				Log.warn("Could not decode .location file for project '" + project.getName()
-						+ "'. Check if project is inside a repository.");
+			for (ProjectFilesWalker subTask : subTasks) {
+				projectFiles.addAll(subTask.join());
 			}
 
-			// Parse name
+			return projectFiles;
+		}
+	}
+
+	private static Map<String, File> buildProjectsMap(List<File> projects, int threads) {
+		List<File> folders;
+		if (threads < 2) {
+			folders = projects.stream()
+					.map(EclipseProjects::getLocationFolder)
+					.collect(Collectors.toList());
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
 			try {
-				projectFoldername = java.net.URLDecoder.decode(projectFoldername, "UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				Log.warn("Could not parse project folder name '" + projectFoldername + "'", e);
-				projectFoldername = null;
+				// Parallel stream runs inside the pool, instead of the common pool
+				folders = pool.submit(() -> projects.parallelStream()
+						.map(EclipseProjects::getLocationFolder)
+						.collect(Collectors.toList()))
+						.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while reading the locations of the projects", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Could not read the locations of the projects", e.getCause());
+			} finally {
+				pool.shutdown();
 			}
+		}
 
-			// Skip project
-			if (projectFoldername == null) {
-				continue;
+		Map<String, File> projectsFolders = new HashMap<>();
+		for (int i = 0; i < projects.size(); i++) {
+			File projectFolder = folders.get(i);
+			if (projectFolder != null) {
+				projectsFolders.put(projects.get(i).getName(), projectFolder);
 			}
+		}
 
-			// If folder does not exist, skip project
-			File projectFolder = new File(projectFoldername);
-			if (!projectFolder.isDirectory()) {
-				continue;
-			}
+		return projectsFolders;
+	}
+
+	/**
+	 * The folder of a project of the workspace, from its .location file.
+	 * 
+	 * @param project
+	 *            the folder of the project in the metadata of the workspace
+	 * @return the folder of the project, or null if the project should be skipped
+	 */
+	private static File getLocationFolder(File project) {
+		// Get .location file
+		File location = new File(project, LOCATION_FILE);
+
+		// If .location does not exist, skip project (might be closed in
+		// Eclipse)
+		if (!location.isFile()) {
+			return null;
+		}
 
-			// projectFolder = IoUtils.existingFolder(null, projectFoldername);
+		String projectFoldername = EclipseMetadataReader.getLocationPath(location);
+		if (projectFoldername == null) {
+			Log.warn("Could not decode .location file for project '" + project.getName()
+					+ "'. Check if project is inside a repository.");
+			return null;
+		}
 
-			projectsFolders.put(project.getName(), projectFolder);
+		// Fix path if unix
+		if (PlatformUtils.isUnix()) {
+			projectFoldername = "/" + projectFoldername;
 		}
 
-		return projectsFolders;
+		// Parse name
+		try {
+			projectFoldername = java.net.URLDecoder.decode(projectFoldername, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			Log.warn("Could not parse project folder name '" + projectFoldername + "'", e);
+			return null;
+		}
+
+		// If folder does not exist, skip project
+		File projectFolder = new File(projectFoldername);
+		if (!projectFolder.isDirectory()) {
+			return null;
+		}
+
+		return projectFolder;
 	}
 
 	public File getProjectFolder(String projectName) {
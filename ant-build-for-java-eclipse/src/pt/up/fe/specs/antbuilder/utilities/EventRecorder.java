@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+/**
+ * Records the JFR events of the generator and of the ANT builds it runs, if the JVM supports JFR (Java 11 or later,
+ * or OpenJDK 8u262 or later). Otherwise, events are ignored.
+ *
+ * <p>
+ * The events are in the source folder 'src-jfr', the only code that uses the jdk.jfr API. The rest of the generator
+ * only uses this class, and runs on any Java 8 JVM.
+ *
+ * @author Joao Bispo
+ *
+ */
+public abstract class EventRecorder {
+
+	private static final String JFR_EVENT_CLASS = "jdk.jfr.Event";
+	private static final String JFR_RECORDER_CLASS = "pt.up.fe.specs.antbuilder.utilities.JfrEventRecorder";
+
+	private static final EventRecorder INSTANCE = newInstance();
+
+	/**
+	 * An execution of a {@link Phase} that started, and is recorded when it ends.
+	 */
+	public interface PhaseRecord {
+		void end(long count, long allocatedBytes);
+	}
+
+	/**
+	 * An execution of an ANT target or task that started, and is recorded when it ends.
+	 */
+	public interface AntRecord {
+		void end(boolean success);
+	}
+
+	/**
+	 *
+	 * @return the recorder of this JVM, which ignores events if JFR is not available
+	 */
+	public static EventRecorder get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Starts recording an execution of a phase.
+	 *
+	 * @param phase
+	 * @param projectName
+	 *            the project the phase is executed for, or empty
+	 * @return
+	 */
+	public abstract PhaseRecord startPhase(String phase, String projectName);
+
+	/**
+	 * Starts recording an execution of an ANT target or task.
+	 *
+	 * @param kind
+	 *            'target' or 'task'
+	 * @param name
+	 * @param target
+	 *            the target the task belongs to, or the target itself
+	 * @return
+	 */
+	public abstract AntRecord startAnt(String kind, String name, String target);
+
+	private static EventRecorder newInstance() {
+		try {
+			// Checked first, the recorder might have been compiled but JFR is missing in this JVM
+			Class.forName(JFR_EVENT_CLASS);
+
+			return Class.forName(JFR_RECORDER_CLASS).asSubclass(EventRecorder.class).getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new DisabledRecorder();
+		}
+	}
+
+	private static class DisabledRecorder extends EventRecorder {
+
+		private static final PhaseRecord PHASE_RECORD = (count, allocatedBytes) -> {
+		};
+		private static final AntRecord ANT_RECORD = success -> {
+		};
+
+		@Override
+		public PhaseRecord startPhase(String phase, String projectName) {
+			return PHASE_RECORD;
+		}
+
+		@Override
+		public AntRecord startAnt(String kind, String name, String target) {
+			return ANT_RECORD;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import pt.up.fe.specs.library.IoUtils;
+import pt.up.fe.specs.library.Log;
+
+/**
+ * Canonical paths and attributes of files, shared by the whole generator, so that each file is only resolved and
+ * checked once per run (e.g., a jar used by thousands of projects).
+ *
+ * <p>
+ * Files are assumed not to change while the generator runs. The cache is cleared when a new
+ * {@link pt.up.fe.specs.antbuilder.classpath.ClasspathParser} is created, use {@link #clear()} when files might have
+ * changed otherwise.
+ *
+ * <p>
+ * Methods are thread-safe.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class FileCache {
+
+	private static final ConcurrentMap<File, File> CANONICAL_FILES = new ConcurrentHashMap<>();
+	// Empty if the file does not exist
+	private static final ConcurrentMap<File, Optional<BasicFileAttributes>> ATTRIBUTES = new ConcurrentHashMap<>();
+
+	private static final LongAdder CANONICAL_HITS = new LongAdder();
+	private static final LongAdder CANONICAL_MISSES = new LongAdder();
+	private static final LongAdder ATTRIBUTES_HITS = new LongAdder();
+	private static final LongAdder ATTRIBUTES_MISSES = new LongAdder();
+
+	/**
+	 * Same as {@link IoUtils#getCanonicalFile(File)}, but only resolves each file once.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static File getCanonicalFile(File file) {
+		File canonicalFile = CANONICAL_FILES.get(file);
+		if (canonicalFile != null) {
+			CANONICAL_HITS.increment();
+			return canonicalFile;
+		}
+
+		return CANONICAL_FILES.computeIfAbsent(file, key -> {
+			CANONICAL_MISSES.increment();
+			return IoUtils.getCanonicalFile(key);
+		});
+	}
+
+	/**
+	 * The attributes of the given file, read with a single call to the file system.
+	 *
+	 * @param file
+	 * @return the attributes, or empty if the file does not exist or cannot be read
+	 */
+	public static Optional<BasicFileAttributes> getAttributes(File file) {
+		Optional<BasicFileAttributes> attributes = ATTRIBUTES.get(file);
+		if (attributes != null) {
+			ATTRIBUTES_HITS.increment();
+			return attributes;
+		}
+
+		return ATTRIBUTES.computeIfAbsent(file, key -> {
+			ATTRIBUTES_MISSES.increment();
+			try {
+				return Optional.of(Files.readAttributes(key.toPath(), BasicFileAttributes.class));
+			} catch (IOException e) {
+				return Optional.empty();
+			}
+		});
+	}
+
+	public static boolean isFile(File file) {
+		return getAttributes(file).map(BasicFileAttributes::isRegularFile).orElse(false);
+	}
+
+	public static boolean isDirectory(File file) {
+		return getAttributes(file).map(BasicFileAttributes::isDirectory).orElse(false);
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the size of the file, or 0 if it does not exist, as {@link File#length()}
+	 */
+	public static long getSize(File file) {
+		return getAttributes(file).map(BasicFileAttributes::size).orElse(0L);
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the modification time of the file, or 0 if it does not exist, as {@link File#lastModified()}
+	 */
+	public static long getLastModified(File file) {
+		return getAttributes(file).map(attributes -> attributes.lastModifiedTime().toMillis()).orElse(0L);
+	}
+
+	/**
+	 * Same as {@link IoUtils#existingFile(File, String)}, but files that are known to exist are not checked again.
+	 *
+	 * @param parent
+	 * @param path
+	 * @return
+	 */
+	public static File existingFile(File parent, String path) {
+		File file = new File(parent, path);
+		if (isFile(file)) {
+			return file;
+		}
+
+		// Reports the missing file
+		return IoUtils.existingFile(parent, path);
+	}
+
+	/**
+	 * Removes all cached paths and attributes, and resets the counters.
+	 */
+	public static void clear() {
+		CANONICAL_FILES.clear();
+		ATTRIBUTES.clear();
+
+		CANONICAL_HITS.reset();
+		CANONICAL_MISSES.reset();
+		ATTRIBUTES_HITS.reset();
+		ATTRIBUTES_MISSES.reset();
+	}
+
+	public static long getHits() {
+		return CANONICAL_HITS.sum() + ATTRIBUTES_HITS.sum();
+	}
+
+	public static long getMisses() {
+		return CANONICAL_MISSES.sum() + ATTRIBUTES_MISSES.sum();
+	}
+
+	public static void logSummary() {
+		Log.info("File cache: " + CANONICAL_HITS.sum() + " canonical paths reused, " + CANONICAL_MISSES.sum()
+				+ " resolved; " + ATTRIBUTES_HITS.sum() + " file attributes reused, " + ATTRIBUTES_MISSES.sum()
+				+ " read");
+	}
+}
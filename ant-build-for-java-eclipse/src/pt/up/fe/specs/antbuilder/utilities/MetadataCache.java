@@ -0,0 +1,409 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pt.up.fe.specs.antbuilder.classpath.ClasspathEntry;
+import pt.up.fe.specs.library.Log;
+
+/**
+ * Keeps the parsed contents of Eclipse metadata files (.project, .classpath, .userlibraries) between runs of the
+ * generator, so that only files that changed are parsed again.
+ *
+ * <p>
+ * Entries are keyed by the path of the file, and validated with its size and modification time. When those do not
+ * match, the hash of the contents is compared before parsing the file again (e.g., a checkout that only touched the
+ * file). Each file is read at most once, the same contents are hashed and parsed.
+ *
+ * <p>
+ * Methods are thread-safe.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class MetadataCache {
+
+	public static final String DEFAULT_FILENAME = ".antbuilder.cache";
+
+	private static final int MAGIC = 0x41424D43;
+	private static final int VERSION = 1;
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+
+	private enum EntryType {
+		PROJECT_NAME,
+		CLASSPATH_ENTRIES,
+		USER_LIBRARIES;
+	}
+
+	private interface Parser<T> {
+		T parse(File file, byte[] contents);
+	}
+
+	private static class Entry {
+		private final EntryType type;
+		private final long size;
+		private final long lastModified;
+		private final byte[] hash;
+		private final Object value;
+
+		public Entry(EntryType type, long size, long lastModified, byte[] hash, Object value) {
+			this.type = type;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.value = value;
+		}
+	}
+
+	// If null, the cache only lives in memory
+	private final File cacheFile;
+
+	// Entries read from the cache file
+	private final Map<String, Entry> previousEntries;
+	// Entries used in this run, only these are saved
+	private final Map<String, Entry> currentEntries;
+
+	private final AtomicInteger hits;
+	private final AtomicInteger misses;
+	// True if an entry was added or replaced in this run, and the cache file must be written
+	private final AtomicBoolean dirty;
+
+	private MetadataCache(File cacheFile, Map<String, Entry> previousEntries) {
+		this.cacheFile = cacheFile;
+		this.previousEntries = previousEntries;
+		this.currentEntries = new ConcurrentHashMap<>();
+		this.hits = new AtomicInteger();
+		this.misses = new AtomicInteger();
+		this.dirty = new AtomicBoolean();
+	}
+
+	/**
+	 * A cache that is not backed by a file.
+	 *
+	 * @return
+	 */
+	public static MetadataCache newTransient() {
+		return new MetadataCache(null, Collections.emptyMap());
+	}
+
+	/**
+	 * Loads the cache from the given file. If the file does not exist or cannot be read, starts with an empty cache.
+	 *
+	 * @param cacheFile
+	 * @return
+	 */
+	public static MetadataCache newInstance(File cacheFile) {
+		return new MetadataCache(cacheFile, load(cacheFile));
+	}
+
+	/**
+	 *
+	 * @param projectFile
+	 * @return the name of the project in the given .project file
+	 */
+	public String getProjectName(File projectFile) {
+		return get(projectFile, EntryType.PROJECT_NAME, EclipseMetadataReader::getProjectName);
+	}
+
+	/**
+	 *
+	 * @param classpathFile
+	 * @return the entries of the given .classpath file
+	 */
+	public List<ClasspathEntry> getClasspathEntries(File classpathFile) {
+		return get(classpathFile, EntryType.CLASSPATH_ENTRIES, EclipseMetadataReader::getClasspathEntries);
+	}
+
+	/**
+	 *
+	 * @param userLibrariesFile
+	 * @return the archive paths of each library in the given .userlibraries file
+	 */
+	public Map<String, List<String>> getUserLibraryPaths(File userLibrariesFile) {
+		return get(userLibrariesFile, EntryType.USER_LIBRARIES, UserLibrariesParser::readLibraryPaths);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T get(File file, EntryType type, Parser<T> parser) {
+		String key = file.getAbsolutePath();
+
+		// Not from FileCache, which might be older than the cache file in a long-lived JVM
+		long size = 0;
+		long lastModified = 0;
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			size = attributes.size();
+			lastModified = attributes.lastModifiedTime().toMillis();
+		} catch (IOException e) {
+			// Reported when the file is read
+		}
+
+		Entry entry = currentEntries.get(key);
+		if (entry == null) {
+			entry = previousEntries.get(key);
+		}
+
+		byte[] contents = null;
+		if (entry != null && entry.type == type) {
+			// File did not change
+			if (entry.size == size && entry.lastModified == lastModified) {
+				hits.incrementAndGet();
+				currentEntries.put(key, entry);
+				return (T) entry.value;
+			}
+
+			// File was touched, but contents might be the same
+			if (isPersistent()) {
+				contents = read(file);
+				byte[] hash = hash(file, contents);
+				if (Arrays.equals(hash, entry.hash)) {
+					hits.incrementAndGet();
+					// Still written, so that the next run does not hash the file again
+					currentEntries.put(key, new Entry(type, size, lastModified, hash, entry.value));
+					dirty.set(true);
+					return (T) entry.value;
+				}
+			}
+		}
+
+		misses.incrementAndGet();
+		if (contents == null) {
+			contents = read(file);
+		}
+		T value = parser.parse(file, contents);
+
+		byte[] hash = isPersistent() ? hash(file, contents) : new byte[0];
+		currentEntries.put(key, new Entry(type, size, lastModified, hash, value));
+		dirty.set(true);
+
+		return value;
+	}
+
+	private boolean isPersistent() {
+		return cacheFile != null;
+	}
+
+	public int getHits() {
+		return hits.get();
+	}
+
+	public int getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Writes the entries used in this run to the cache file. Does nothing if the cache is not backed by a file, or if
+	 * there are no changes.
+	 */
+	public void save() {
+		if (!isPersistent()) {
+			return;
+		}
+
+		Log.info("Metadata cache: " + hits.get() + " files reused, " + misses.get() + " files parsed");
+
+		if (!dirty.get() && currentEntries.keySet().equals(previousEntries.keySet())) {
+			return;
+		}
+
+		// Write to a temporary file first, so that an interrupted run does not leave a corrupted cache
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+			write(output);
+		} catch (IOException e) {
+			Log.warn("Could not write metadata cache '" + cacheFile + "'", e);
+			tempFile.delete();
+			return;
+		}
+
+		try {
+			Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.warn("Could not replace metadata cache '" + cacheFile + "'", e);
+			tempFile.delete();
+		}
+	}
+
+	private void write(DataOutputStream output) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+
+		// Copy, so that the count matches the written entries
+		Map<String, Entry> entries = new LinkedHashMap<>(currentEntries);
+		output.writeInt(entries.size());
+
+		for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+			Entry entry = mapEntry.getValue();
+
+			output.writeUTF(mapEntry.getKey());
+			output.writeByte(entry.type.ordinal());
+			output.writeLong(entry.size);
+			output.writeLong(entry.lastModified);
+			output.writeShort(entry.hash.length);
+			output.write(entry.hash);
+
+			writeValue(output, entry.type, entry.value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void writeValue(DataOutputStream output, EntryType type, Object value) throws IOException {
+		switch (type) {
+		case PROJECT_NAME:
+			writeNullable(output, (String) value);
+			return;
+		case CLASSPATH_ENTRIES:
+			List<ClasspathEntry> classpathEntries = (List<ClasspathEntry>) value;
+			output.writeInt(classpathEntries.size());
+			for (ClasspathEntry classpathEntry : classpathEntries) {
+				output.writeUTF(classpathEntry.getTag());
+				writeNullable(output, classpathEntry.getKind());
+				writeNullable(output, classpathEntry.getPath());
+				writeNullable(output, classpathEntry.getCombineAccessRules());
+			}
+			return;
+		case USER_LIBRARIES:
+			Map<String, List<String>> libraries = (Map<String, List<String>>) value;
+			output.writeInt(libraries.size());
+			for (Map.Entry<String, List<String>> library : libraries.entrySet()) {
+				output.writeUTF(library.getKey());
+				output.writeInt(library.getValue().size());
+				for (String path : library.getValue()) {
+					output.writeUTF(path);
+				}
+			}
+			return;
+		default:
+			throw new RuntimeException("Case not defined:" + type);
+		}
+	}
+
+	private static Map<String, Entry> load(File cacheFile) {
+		if (!cacheFile.isFile()) {
+			return Collections.emptyMap();
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				Log.info("Ignoring metadata cache '" + cacheFile + "', it was written by a different version");
+				return Collections.emptyMap();
+			}
+
+			int numEntries = input.readInt();
+			Map<String, Entry> entries = new ConcurrentHashMap<>();
+			for (int i = 0; i < numEntries; i++) {
+				String key = input.readUTF();
+				EntryType type = EntryType.values()[input.readByte()];
+				long size = input.readLong();
+				long lastModified = input.readLong();
+				byte[] hash = new byte[input.readShort()];
+				input.readFully(hash);
+				Object value = readValue(input, type);
+
+				entries.put(key, new Entry(type, size, lastModified, hash, value));
+			}
+
+			return entries;
+		} catch (IOException | RuntimeException e) {
+			Log.warn("Could not read metadata cache '" + cacheFile + "', starting with an empty cache: " + e);
+			return Collections.emptyMap();
+		}
+	}
+
+	private static Object readValue(DataInputStream input, EntryType type) throws IOException {
+		switch (type) {
+		case PROJECT_NAME:
+			return readNullable(input);
+		case CLASSPATH_ENTRIES:
+			int numEntries = input.readInt();
+			List<ClasspathEntry> classpathEntries = new ArrayList<>(numEntries);
+			for (int i = 0; i < numEntries; i++) {
+				classpathEntries.add(new ClasspathEntry(input.readUTF(), readNullable(input), readNullable(input),
+						readNullable(input)));
+			}
+			return classpathEntries;
+		case USER_LIBRARIES:
+			int numLibraries = input.readInt();
+			Map<String, List<String>> libraries = new LinkedHashMap<>();
+			for (int i = 0; i < numLibraries; i++) {
+				String name = input.readUTF();
+				int numPaths = input.readInt();
+				List<String> paths = new ArrayList<>(numPaths);
+				for (int j = 0; j < numPaths; j++) {
+					paths.add(input.readUTF());
+				}
+				libraries.put(name, paths);
+			}
+			return libraries;
+		default:
+			throw new RuntimeException("Case not defined:" + type);
+		}
+	}
+
+	private static void writeNullable(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(DataInputStream input) throws IOException {
+		if (!input.readBoolean()) {
+			return null;
+		}
+
+		return input.readUTF();
+	}
+
+	private static byte[] read(File file) {
+		try {
+			return Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read file '" + file + "'", e);
+		}
+	}
+
+	private static byte[] hash(File file, byte[] contents) {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM).digest(contents);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Could not compute hash of file '" + file + "'", e);
+		}
+	}
+}
@@ -0,0 +1,431 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+
+import pt.up.fe.specs.library.Log;
+
+/**
+ * Records the start and end of every ANT target and task, the thread that executed it, and if it succeeded.
+ *
+ * <p>
+ * When the build finishes, writes the records as a CSV file ({@value #CSV_FILENAME}) and as an OpenMetrics text file
+ * ({@value #METRICS_FILENAME}) in the reports folder. Each record is also a JFR event.
+ *
+ * <p>
+ * Can be added to ANT from the command line, with '-listener pt.up.fe.specs.antbuilder.utilities.MetricsListener', in
+ * which case the reports folder is the folder 'reports' in the base folder of the ANT project.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class MetricsListener implements BuildListener {
+
+	public static final String CSV_FILENAME = "ant-metrics.csv";
+	public static final String METRICS_FILENAME = "ant-metrics.txt";
+
+	private static final String REPORTS_FOLDER = "reports";
+
+	/**
+	 * The execution of a target or task.
+	 */
+	public static class Record {
+		private final String kind;
+		private final String name;
+		private final String target;
+		private final String thread;
+		private final long startMillis;
+		private final long startNanos;
+		private final Object source;
+		private final EventRecorder.AntRecord event;
+
+		private long endMillis;
+		private long durationNanos;
+		private boolean success;
+
+		private Record(String kind, String name, String target, Object source) {
+			this.kind = kind;
+			this.name = name;
+			this.target = target;
+			this.thread = Thread.currentThread().getName();
+			this.source = source;
+
+			this.event = EventRecorder.get().startAnt(kind, name, target);
+
+			this.startMillis = System.currentTimeMillis();
+			this.startNanos = System.nanoTime();
+		}
+
+		private Record(String kind, String name, String target, String thread, long startMillis, long endMillis,
+				long durationNanos, boolean success) {
+			this.kind = kind;
+			this.name = name;
+			this.target = target;
+			this.thread = thread;
+			this.source = null;
+			this.event = null;
+
+			this.startMillis = startMillis;
+			this.startNanos = startMillis * 1_000_000;
+			this.endMillis = endMillis;
+			this.durationNanos = durationNanos;
+			this.success = success;
+		}
+
+		private void finish(boolean success) {
+			this.durationNanos = System.nanoTime() - startNanos;
+			this.endMillis = startMillis + durationNanos / 1_000_000;
+			this.success = success;
+
+			event.end(success);
+		}
+
+		/**
+		 *
+		 * @return 'target' or 'task'
+		 */
+		public String getKind() {
+			return kind;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 *
+		 * @return the target of a task, or the name of a target
+		 */
+		public String getTarget() {
+			return target;
+		}
+
+		public String getThread() {
+			return thread;
+		}
+
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		public long getEndMillis() {
+			return endMillis;
+		}
+
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+	}
+
+	private final File reportsFolder;
+	private final ConcurrentLinkedQueue<Record> records;
+
+	// Targets and tasks start and finish in the same thread, parallel tasks run in other threads
+	private final ThreadLocal<Deque<Record>> running;
+
+	/**
+	 * Writes the files in the folder 'reports' of the base folder of the ANT project.
+	 */
+	public MetricsListener() {
+		this(null);
+	}
+
+	/**
+	 *
+	 * @param reportsFolder
+	 *            the folder where the files are written
+	 */
+	public MetricsListener(File reportsFolder) {
+		this.reportsFolder = reportsFolder;
+		this.records = new ConcurrentLinkedQueue<>();
+		this.running = ThreadLocal.withInitial(ArrayDeque::new);
+	}
+
+	@Override
+	public void buildStarted(BuildEvent event) {
+		records.clear();
+	}
+
+	@Override
+	public void buildFinished(BuildEvent event) {
+		File folder = reportsFolder;
+		if (folder == null) {
+			folder = new File(event.getProject().getBaseDir(), REPORTS_FOLDER);
+		}
+
+		folder.mkdirs();
+		List<Record> finishedRecords = getRecords();
+
+		try {
+			writeCsv(finishedRecords, new File(folder, CSV_FILENAME));
+			writeOpenMetrics(finishedRecords, new File(folder, METRICS_FILENAME));
+		} catch (IOException e) {
+			Log.warn("Could not write ANT metrics to folder '" + folder + "'", e);
+		}
+	}
+
+	@Override
+	public void targetStarted(BuildEvent event) {
+		Target target = event.getTarget();
+		running.get().push(new Record("target", target.getName(), target.getName(), target));
+	}
+
+	@Override
+	public void targetFinished(BuildEvent event) {
+		finish(event.getTarget(), event);
+	}
+
+	@Override
+	public void taskStarted(BuildEvent event) {
+		Task task = event.getTask();
+		Target target = task.getOwningTarget();
+		String targetName = target != null ? target.getName() : "";
+
+		running.get().push(new Record("task", task.getTaskName(), targetName, task));
+	}
+
+	@Override
+	public void taskFinished(BuildEvent event) {
+		finish(event.getTask(), event);
+	}
+
+	@Override
+	public void messageLogged(BuildEvent event) {
+	}
+
+	private void finish(Object source, BuildEvent event) {
+		// Usually the last record, unless a task or target failed to report its end
+		Iterator<Record> iterator = running.get().iterator();
+		while (iterator.hasNext()) {
+			Record record = iterator.next();
+			if (record.source != source) {
+				continue;
+			}
+
+			iterator.remove();
+			record.finish(event.getException() == null);
+			records.add(record);
+			return;
+		}
+	}
+
+	/**
+	 *
+	 * @return the finished targets and tasks, ordered by start time
+	 */
+	public List<Record> getRecords() {
+		List<Record> sortedRecords = new ArrayList<>(records);
+		Collections.sort(sortedRecords, (record1, record2) -> Long.compare(record1.startNanos, record2.startNanos));
+
+		return sortedRecords;
+	}
+
+	/**
+	 * Reads the records of a CSV file written by this listener.
+	 *
+	 * @param csvFile
+	 * @return the records, in the same order as the file
+	 */
+	public static List<Record> readCsv(File csvFile) {
+		List<Record> records = new ArrayList<>();
+
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read ANT metrics from file '" + csvFile + "'", e);
+		}
+
+		// Skip header
+		for (int i = 1; i < lines.size(); i++) {
+			if (lines.get(i).isEmpty()) {
+				continue;
+			}
+
+			List<String> values = csvValues(lines.get(i));
+			if (values.size() != 8) {
+				throw new RuntimeException("Expected 8 values in line " + (i + 1) + " of file '" + csvFile
+						+ "', found " + values.size());
+			}
+
+			records.add(new Record(values.get(0), values.get(1), values.get(2), values.get(3),
+					Long.parseLong(values.get(4)), Long.parseLong(values.get(5)),
+					(long) (Double.parseDouble(values.get(6)) * 1_000_000), values.get(7).equals("success")));
+		}
+
+		return records;
+	}
+
+	private static List<String> csvValues(String line) {
+		List<String> values = new ArrayList<>();
+
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if (quoted) {
+				if (c != '"') {
+					value.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+				continue;
+			}
+
+			if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		values.add(value.toString());
+
+		return values;
+	}
+
+	private static void writeCsv(List<Record> records, File csvFile) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(csvFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write("kind,name,target,thread,start_ms,end_ms,duration_ms,status\n");
+
+			for (Record record : records) {
+				writer.write(record.kind + "," + csvValue(record.name) + "," + csvValue(record.target) + ","
+						+ csvValue(record.thread) + "," + record.startMillis + "," + record.endMillis + ","
+						+ String.format(Locale.ROOT, "%.3f", record.durationNanos / 1_000_000.0) + ","
+						+ (record.success ? "success" : "failure") + "\n");
+			}
+		}
+	}
+
+	private static String csvValue(String value) {
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) {
+			return value;
+		}
+
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * A gauge per target with its start, end and duration, and if it succeeded. Tasks are summarized per target and
+	 * task name, with their total duration, number of executions and failures.
+	 */
+	private static void writeOpenMetrics(List<Record> records, File metricsFile) throws IOException {
+		StringBuilder start = new StringBuilder();
+		StringBuilder end = new StringBuilder();
+		StringBuilder duration = new StringBuilder();
+		StringBuilder success = new StringBuilder();
+
+		Map<String, long[]> tasks = new LinkedHashMap<>();
+
+		for (Record record : records) {
+			if (record.kind.equals("task")) {
+				String labels = "target=\"" + labelValue(record.target) + "\",task=\"" + labelValue(record.name)
+						+ "\"";
+				// Duration, executions, failures
+				long[] task = tasks.computeIfAbsent(labels, key -> new long[3]);
+				task[0] += record.durationNanos;
+				task[1]++;
+				task[2] += record.success ? 0 : 1;
+				continue;
+			}
+
+			String labels = "{target=\"" + labelValue(record.name) + "\",thread=\"" + labelValue(record.thread)
+					+ "\"}";
+			start.append("antbuilder_target_start_seconds" + labels + " " + seconds(record.startMillis) + "\n");
+			end.append("antbuilder_target_end_seconds" + labels + " " + seconds(record.endMillis) + "\n");
+			duration.append("antbuilder_target_duration_seconds" + labels + " "
+					+ String.format(Locale.ROOT, "%.6f", record.durationNanos / 1e9) + "\n");
+			success.append("antbuilder_target_success" + labels + " " + (record.success ? 1 : 0) + "\n");
+		}
+
+		try (Writer writer = Files.newBufferedWriter(metricsFile.toPath(), StandardCharsets.UTF_8)) {
+			writeFamily(writer, "antbuilder_target_start_seconds", "gauge", "seconds",
+					"Time when the target started, in seconds since the epoch.", start);
+			writeFamily(writer, "antbuilder_target_end_seconds", "gauge", "seconds",
+					"Time when the target finished, in seconds since the epoch.", end);
+			writeFamily(writer, "antbuilder_target_duration_seconds", "gauge", "seconds",
+					"Duration of the target.", duration);
+			writeFamily(writer, "antbuilder_target_success", "gauge", null,
+					"1 if the target succeeded, 0 if it failed.", success);
+
+			StringBuilder taskSeconds = new StringBuilder();
+			StringBuilder taskFailures = new StringBuilder();
+			for (Map.Entry<String, long[]> task : tasks.entrySet()) {
+				String labels = "{" + task.getKey() + "}";
+				long[] values = task.getValue();
+
+				taskSeconds.append("antbuilder_task_seconds_sum" + labels + " "
+						+ String.format(Locale.ROOT, "%.6f", values[0] / 1e9) + "\n");
+				taskSeconds.append("antbuilder_task_seconds_count" + labels + " " + values[1] + "\n");
+				taskFailures.append("antbuilder_task_failures_total" + labels + " " + values[2] + "\n");
+			}
+
+			writeFamily(writer, "antbuilder_task_seconds", "summary", "seconds",
+					"Total duration and number of executions of each task in each target.", taskSeconds);
+			writeFamily(writer, "antbuilder_task_failures", "counter", null,
+					"Number of failed executions of each task in each target.", taskFailures);
+
+			writer.write("# EOF\n");
+		}
+	}
+
+	private static void writeFamily(Writer writer, String name, String type, String unit, String help,
+			CharSequence samples) throws IOException {
+
+		writer.write("# TYPE " + name + " " + type + "\n");
+		if (unit != null) {
+			writer.write("# UNIT " + name + " " + unit + "\n");
+		}
+		writer.write("# HELP " + name + " " + help + "\n");
+		writer.append(samples);
+	}
+
+	private static String seconds(long millis) {
+		return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+	}
+
+	private static String labelValue(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+import pt.up.fe.specs.library.Log;
+
+/**
+ * The phases of the generator. Each execution of a phase is a {@link PhaseTimer}, which is recorded as a
+ * {@link PhaseEvent} in JFR recordings, and is added to the totals of the phase.
+ *
+ * @author Joao Bispo
+ *
+ */
+public enum Phase {
+
+	/**
+	 * Looking for the projects in the repository. The count is the number of projects found.
+	 */
+	DISCOVERY("Discovery"),
+
+	/**
+	 * Parsing the user libraries file. The count is the number of libraries.
+	 */
+	USER_LIBRARIES("User libraries"),
+
+	/**
+	 * Resolving the classpath of a project, including parsing the .classpath files of the projects it depends on that
+	 * were not parsed yet. The count is the number of projects and JARs in the classpath.
+	 */
+	CLASSPATH("Classpath"),
+
+	/**
+	 * Rendering a fragment of build.xml for a project, which is written to the buffer of the file as it is rendered.
+	 * The count is the number of fragments.
+	 */
+	RENDERING("Rendering"),
+
+	/**
+	 * Flushing build.xml, comparing it with the previous file and replacing it. The count is the number of bytes of
+	 * the file.
+	 */
+	WRITE("Write");
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean ALLOCATION_SUPPORTED = isAllocationSupported();
+
+	private final String label;
+
+	private final LongAdder executions;
+	private final LongAdder nanos;
+	private final LongAdder count;
+	private final LongAdder allocatedBytes;
+
+	private Phase(String label) {
+		this.label = label;
+		this.executions = new LongAdder();
+		this.nanos = new LongAdder();
+		this.count = new LongAdder();
+		this.allocatedBytes = new LongAdder();
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Starts an execution of this phase, which ends when the timer is closed.
+	 *
+	 * @return
+	 */
+	public PhaseTimer start() {
+		return new PhaseTimer(this, "");
+	}
+
+	/**
+	 * Starts an execution of this phase for the given project, which ends when the timer is closed.
+	 *
+	 * @param projectName
+	 * @return
+	 */
+	public PhaseTimer start(String projectName) {
+		return new PhaseTimer(this, projectName);
+	}
+
+	void add(long executionNanos, long executionCount, long executionAllocatedBytes) {
+		executions.increment();
+		nanos.add(executionNanos);
+		count.add(executionCount);
+		allocatedBytes.add(executionAllocatedBytes);
+	}
+
+	/**
+	 * Logs a table with the totals of each phase.
+	 *
+	 * <p>
+	 * Phases that run in several threads at the same time (e.g., classpath resolution) add the time of each thread,
+	 * and can take more time than the whole execution.
+	 */
+	public static void logSummary() {
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%-16s %10s %12s %12s %16s%n", "Phase", "Executions", "Time (ms)", "Count",
+				"Allocated (MB)"));
+
+		for (Phase phase : values()) {
+			table.append(String.format("%-16s %10d %12.1f %12d %16s%n", phase.label, phase.executions.sum(),
+					phase.nanos.sum() / 1_000_000.0, phase.count.sum(),
+					ALLOCATION_SUPPORTED ? String.format("%.1f", phase.allocatedBytes.sum() / (1024.0 * 1024.0))
+							: "n/a"));
+		}
+
+		Log.info("Time spent in each phase:\n" + table);
+	}
+
+	/**
+	 * Clears the totals of all phases.
+	 */
+	public static void reset() {
+		for (Phase phase : values()) {
+			phase.executions.reset();
+			phase.nanos.reset();
+			phase.count.reset();
+			phase.allocatedBytes.reset();
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of bytes allocated by the current thread since it started, or 0 if the JVM does not support
+	 *         it
+	 */
+	static long getAllocatedBytes() {
+		if (!ALLOCATION_SUPPORTED) {
+			return 0;
+		}
+
+		return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static boolean isAllocationSupported() {
+		if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+			return false;
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+		return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+	}
+}
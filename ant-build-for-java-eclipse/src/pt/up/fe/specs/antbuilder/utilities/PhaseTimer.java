@@ -0,0 +1,62 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.utilities;
+
+/**
+ * One execution of a {@link Phase}, used in a try-with-resources block.
+ *
+ * <p>
+ * Allocated bytes are measured in the thread that started the timer, work that the phase hands to other threads is
+ * not included.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class PhaseTimer implements AutoCloseable {
+
+	private final Phase phase;
+	private final EventRecorder.PhaseRecord record;
+	private final long startNanos;
+	private final long startAllocatedBytes;
+
+	private long count;
+
+	PhaseTimer(Phase phase, String projectName) {
+		this.phase = phase;
+
+		this.record = EventRecorder.get().startPhase(phase.getLabel(), projectName);
+
+		this.count = 1;
+		this.startAllocatedBytes = Phase.getAllocatedBytes();
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Sets the count of this execution (e.g., the number of projects found). By default, the count is 1.
+	 *
+	 * @param count
+	 */
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	@Override
+	public void close() {
+		long nanos = System.nanoTime() - startNanos;
+		long allocatedBytes = Phase.getAllocatedBytes() - startAllocatedBytes;
+
+		phase.add(nanos, count, allocatedBytes);
+		record.end(count, allocatedBytes);
+	}
+}
@@ -56,6 +56,19 @@ public class UserLibraries {
 		return new UserLibrariesParser(eclipseProjects, userLibrariesFile).parse();
 	}
 
+	/**
+	 * Creates a new UserLibraries object, reusing the parsed user libraries file if it is in the cache.
+	 * 
+	 * @param eclipseProjects
+	 * @param userLibrariesFile
+	 * @param cache
+	 * @return
+	 */
+	public static UserLibraries newInstance(EclipseProjects eclipseProjects, File userLibrariesFile,
+			MetadataCache cache) {
+		return new UserLibrariesParser(eclipseProjects, userLibrariesFile, cache).parse();
+	}
+
 	/**
 	 * Always returns a UserLibraries object.
 	 * 
@@ -160,7 +173,7 @@ public class UserLibraries {
 		// Get file
 		String filepath = value.substring(splitIndex + 1);
 
-		File jarFile = IoUtils.existingFile(projectFolder, filepath);
+		File jarFile = FileCache.existingFile(projectFolder, filepath);
 
 		return jarFile;
 	}
@@ -13,17 +13,23 @@
 
 package pt.up.fe.specs.antbuilder.utilities;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
-import pt.up.fe.specs.library.IoUtils;
 import pt.up.fe.specs.library.XmlUtils;
 
 import com.google.common.base.Preconditions;
@@ -38,19 +44,54 @@ class UserLibrariesParser {
 
 	private final File userLibrariesFile;
 	private final EclipseProjects eclipseProjects;
+	private final MetadataCache cache;
 
 	// This needs EclipseProjects, to locate the project where archives are
 	public UserLibrariesParser(EclipseProjects eclipseProjects, File userLibrariesFile) {
+		this(eclipseProjects, userLibrariesFile, MetadataCache.newTransient());
+	}
+
+	public UserLibrariesParser(EclipseProjects eclipseProjects, File userLibrariesFile, MetadataCache cache) {
 		this.eclipseProjects = eclipseProjects;
 		this.userLibrariesFile = userLibrariesFile;
+		this.cache = cache;
 	}
 
 	public UserLibraries parse() {
-		NodeList nodes = XmlUtils.getNodeList(userLibrariesFile);
+		Map<String, List<String>> libraryPaths = cache.getUserLibraryPaths(userLibrariesFile);
+
+		Map<String, List<File>> userLibraries = new HashMap<>();
+		for (Map.Entry<String, List<String>> library : libraryPaths.entrySet()) {
+			// It still needs the path for the project
+			List<File> filePaths = getFilePaths(library.getValue());
+
+			userLibraries.put(library.getKey(), filePaths);
+		}
+
+		return new UserLibraries(userLibraries);
+	}
+
+	/**
+	 * Reads the archive paths of each library in a .userlibraries file, as they appear in the file.
+	 * 
+	 * @param userLibrariesFile
+	 *            the file the contents were read from, used in error messages
+	 * @param contents
+	 * @return
+	 */
+	static Map<String, List<String>> readLibraryPaths(File userLibrariesFile, byte[] contents) {
+		NodeList nodes;
+		try {
+			nodes = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.parse(new ByteArrayInputStream(contents)).getChildNodes();
+		} catch (ParserConfigurationException | SAXException | IOException e) {
+			throw new RuntimeException("Could not parse user libraries file '" + userLibrariesFile + "'", e);
+		}
+
 		Node rootNode = XmlUtils.getNode(nodes, TAG_ROOT);
 		List<Node> libraries = XmlUtils.getNodes(rootNode, TAG_LIBRARY);
 
-		Map<String, List<File>> userLibraries = new HashMap<>();
+		Map<String, List<String>> libraryPaths = new LinkedHashMap<>();
 		for (Node node : libraries) {
 			// Get name of the library
 			String libName = XmlUtils.getAttribute(node, ATTR_NAME).get();
@@ -61,13 +102,10 @@ class UserLibrariesParser {
 					.map(archive -> XmlUtils.getAttribute(archive, ATTR_PATH).get())
 					.collect(Collectors.toList());
 
-			// It still needs the path for the project
-			List<File> filePaths = getFilePaths(paths);
-
-			userLibraries.put(libName, filePaths);
+			libraryPaths.put(libName, paths);
 		}
 
-		return new UserLibraries(userLibraries);
+		return libraryPaths;
 	}
 
 	private List<File> getFilePaths(List<String> paths) {
@@ -92,7 +130,7 @@ class UserLibrariesParser {
 			File projectFolder = eclipseProjects.getProjectFolder(projectName);
 
 			// Build file for archive
-			File archive = IoUtils.existingFile(projectFolder, remainingPath);
+			File archive = FileCache.existingFile(projectFolder, remainingPath);
 
 			filePaths.add(archive);
 		}
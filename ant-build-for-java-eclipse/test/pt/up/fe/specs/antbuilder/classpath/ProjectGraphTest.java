@@ -0,0 +1,298 @@
+/**
+ * Copyright 2016 SPeCS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License. under the License.
+ */
+
+package pt.up.fe.specs.antbuilder.classpath;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Closures, output folder order and dependency cycles of {@link ProjectGraph}, on small graphs where each project has
+ * an output folder and a JAR of its own ("<PROJECT>.jar"), followed by its dependencies.
+ *
+ * @author Joao Bispo
+ *
+ */
+public class ProjectGraphTest {
+
+	/**
+	 * The .classpath files of a test, and how many times each one was requested by the graph.
+	 */
+	private static class Classpaths {
+		private final Map<String, ProjectClasspath> classpaths = new HashMap<>();
+		private final Map<String, Integer> requests = new HashMap<>();
+
+		public Classpaths project(String projectName, String... dependencies) {
+			ProjectClasspath.Builder builder = new ProjectClasspath.Builder(projectName, new File(projectName))
+					.addSourceFolder("src")
+					.addOutput(getOutputFolder(projectName))
+					.addJars(Arrays.asList(getJar(projectName)));
+
+			for (String dependency : dependencies) {
+				builder.addProject("/" + dependency);
+			}
+
+			classpaths.put(projectName, builder.build());
+			return this;
+		}
+
+		public ProjectGraph newGraph() {
+			return new ProjectGraph(projectName -> {
+				requests.merge(projectName, 1, Integer::sum);
+				ProjectClasspath classpath = classpaths.get(projectName);
+				if (classpath == null) {
+					throw new RuntimeException("Unknown project '" + projectName + "'");
+				}
+
+				return classpath;
+			});
+		}
+
+		public int getRequests(String projectName) {
+			return requests.getOrDefault(projectName, 0);
+		}
+	}
+
+	private static File getOutputFolder(String projectName) {
+		return new File(projectName, "bin");
+	}
+
+	private static File getJar(String projectName) {
+		return new File(projectName + ".jar");
+	}
+
+	private static List<File> getJars(String... projectNames) {
+		List<File> jars = new ArrayList<>();
+		for (String projectName : projectNames) {
+			jars.add(getJar(projectName));
+		}
+		return jars;
+	}
+
+	private static List<Integer> toList(int[] ids) {
+		List<Integer> list = new ArrayList<>();
+		for (int id : ids) {
+			list.add(id);
+		}
+		return list;
+	}
+
+	@Test
+	public void chain() {
+		Classpaths classpaths = new Classpaths()
+				.project("A", "B")
+				.project("B", "C")
+				.project("C");
+		ProjectGraph graph = classpaths.newGraph();
+
+		ProjectGraph.Closure closure = graph.getClosure("A");
+		assertEquals(Arrays.asList("A", "B", "C"), closure.getProjects());
+		assertEquals(getJars("A", "B", "C"), closure.getJars());
+
+		// Dependencies are memoized while building the closure of A
+		assertSame(graph.getClosure("B"), graph.getClosure("B"));
+		assertEquals(Arrays.asList("B", "C"), graph.getClosure("B").getProjects());
+		assertEquals(Arrays.asList("C"), graph.getClosure("C").getProjects());
+		assertSame(closure, graph.getClosure("A"));
+
+		for (String projectName : Arrays.asList("A", "B", "C")) {
+			assertEquals(projectName, 1, classpaths.getRequests(projectName));
+		}
+
+		assertEquals(3, graph.getNumProjects());
+		assertEquals(3, graph.getNumJars());
+		assertEquals(Collections.emptyList(), graph.getCycles(Arrays.asList("A", "B", "C")));
+	}
+
+	@Test
+	public void diamond() {
+		Classpaths classpaths = new Classpaths()
+				.project("A", "B", "C")
+				.project("B", "D")
+				.project("C", "D")
+				.project("D");
+		ProjectGraph graph = classpaths.newGraph();
+
+		// D is added once, through the first dependency that reaches it
+		ProjectGraph.Closure closure = graph.getClosure("A");
+		assertEquals(Arrays.asList("A", "B", "D", "C"), closure.getProjects());
+		assertEquals(getJars("A", "B", "D", "C"), closure.getJars());
+
+		assertEquals(Arrays.asList("C", "D"), graph.getClosure("C").getProjects());
+		assertEquals(1, classpaths.getRequests("D"));
+		assertEquals(Collections.emptyList(), graph.getCycles(Arrays.asList("A", "B", "C", "D")));
+	}
+
+	@Test
+	public void entryOrder() {
+		Classpaths classpaths = new Classpaths()
+				.project("root", "z", "m", "a")
+				.project("z", "a")
+				.project("m")
+				.project("a");
+		ProjectGraph graph = classpaths.newGraph();
+
+		// Order of the .classpath entries, depth-first, not sorted by name
+		ProjectGraph.Closure closure = graph.getClosure("root");
+		assertEquals(Arrays.asList("root", "z", "a", "m"), closure.getProjects());
+		assertEquals(getJars("root", "z", "a", "m"), closure.getJars());
+
+		// Ids are assigned in the same order
+		assertEquals(Arrays.asList(0, 1, 2, 3), toList(closure.getProjectIds()));
+		assertEquals(Arrays.asList(0, 1, 2, 3), toList(closure.getJarIds()));
+	}
+
+	@Test
+	public void twoCycleFromOutside() {
+		Classpaths classpaths = new Classpaths()
+				.project("E", "X")
+				.project("X", "Y")
+				.project("Y", "X");
+		ProjectGraph graph = classpaths.newGraph();
+
+		assertEquals(Arrays.asList("E", "X", "Y"), graph.getClosure("E").getProjects());
+
+		// Y was visited from inside the cycle, its closure must not be the partial one seen from X
+		assertEquals(Arrays.asList("X", "Y"), graph.getClosure("X").getProjects());
+		assertEquals(Arrays.asList("Y", "X"), graph.getClosure("Y").getProjects());
+		assertEquals(getJars("Y", "X"), graph.getClosure("Y").getJars());
+		assertEquals(1, classpaths.getRequests("X"));
+
+		List<List<String>> cycles = graph.getCycles(Arrays.asList("E", "X", "Y"));
+		assertEquals(Arrays.asList(Arrays.asList("X", "Y")), cycles);
+		assertEquals(Arrays.asList("X", "Y", "X"), graph.getCyclePath(cycles.get(0)));
+	}
+
+	@Test
+	public void threeCycleFromOutside() {
+		Classpaths classpaths = new Classpaths()
+				.project("E", "A")
+				.project("A", "B")
+				.project("B", "C")
+				.project("C", "A");
+		ProjectGraph graph = classpaths.newGraph();
+
+		assertEquals(Arrays.asList("E", "A", "B", "C"), graph.getClosure("E").getProjects());
+		assertEquals(Arrays.asList("A", "B", "C"), graph.getClosure("A").getProjects());
+		assertEquals(Arrays.asList("B", "C", "A"), graph.getClosure("B").getProjects());
+		assertEquals(Arrays.asList("C", "A", "B"), graph.getClosure("C").getProjects());
+
+		// Closed by A, which is memoized, the other projects of the cycle are not
+		assertSame(graph.getClosure("A"), graph.getClosure("A"));
+		assertEquals(1, classpaths.getRequests("E"));
+		assertEquals(1, classpaths.getRequests("A"));
+
+		// Projects of the cycle in the given order, path starts at the first one
+		List<List<String>> cycles = graph.getCycles(Arrays.asList("C", "E", "B", "A"));
+		assertEquals(Arrays.asList(Arrays.asList("C", "B", "A")), cycles);
+		assertEquals(Arrays.asList("C", "A", "B", "C"), graph.getCyclePath(cycles.get(0)));
+	}
+
+	@Test
+	public void selfLoop() {
+		Classpaths classpaths = new Classpaths()
+				.project("S", "S")
+				.project("T", "S");
+		ProjectGraph graph = classpaths.newGraph();
+
+		assertEquals(Arrays.asList("S"), graph.getClosure("S").getProjects());
+		assertEquals(Arrays.asList("T", "S"), graph.getClosure("T").getProjects());
+
+		List<List<String>> cycles = graph.getCycles(Arrays.asList("T", "S"));
+		assertEquals(Arrays.asList(Arrays.asList("S")), cycles);
+		assertEquals(Arrays.asList("S", "S"), graph.getCyclePath(cycles.get(0)));
+	}
+
+	@Test
+	public void cyclesOrderedByFirstProject() {
+		Classpaths classpaths = new Classpaths()
+				.project("P", "Q")
+				.project("Q", "P", "A")
+				.project("A", "B")
+				.project("B", "A");
+		ProjectGraph graph = classpaths.newGraph();
+
+		// Tarjan finds [A, B] first, components are sorted by their first project in the given order
+		assertEquals(Arrays.asList(Arrays.asList("P", "Q"), Arrays.asList("A", "B")),
+				graph.getCycles(Arrays.asList("P", "Q", "A", "B")));
+
+		// Dependencies to projects that are not given are ignored
+		assertEquals(Arrays.asList(Arrays.asList("A", "B")), graph.getCycles(Arrays.asList("Q", "A", "B")));
+	}
+
+	@Test
+	public void cyclesOfDeepChain() {
+		// Deeper than the call stack allows for a recursive search
+		int numProjects = 100_000;
+		Classpaths classpaths = new Classpaths();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < numProjects; i++) {
+			String name = "project-" + i;
+			names.add(name);
+			if (i + 1 < numProjects) {
+				classpaths.project(name, "project-" + (i + 1));
+			} else {
+				classpaths.project(name, "project-0");
+			}
+		}
+		ProjectGraph graph = classpaths.newGraph();
+
+		List<List<String>> cycles = graph.getCycles(names);
+		assertEquals(1, cycles.size());
+		assertEquals(names, cycles.get(0));
+
+		List<String> path = graph.getCyclePath(cycles.get(0));
+		assertEquals(numProjects + 1, path.size());
+		assertEquals("project-0", path.get(0));
+		assertEquals("project-0", path.get(numProjects));
+	}
+
+	@Test
+	public void folderOrder() {
+		Classpaths classpaths = new Classpaths();
+		List<String> dependencies = new ArrayList<>();
+		for (int i = 1; i <= 40; i++) {
+			dependencies.add("project-" + i);
+			classpaths.project("project-" + i);
+		}
+		classpaths.project("project-0", dependencies.toArray(new String[0]));
+		ProjectGraph graph = classpaths.newGraph();
+
+		ProjectGraph.Closure closure = graph.getClosure("project-0");
+
+		// Before the graph, folders were collected in a map from project names to folders, and copied
+		Map<String, File> folders = new LinkedHashMap<>();
+		for (String projectName : closure.getProjects()) {
+			folders.put(projectName, getOutputFolder(projectName));
+		}
+		Map<String, File> legacyFolders = new HashMap<>(folders);
+
+		assertEquals(new ArrayList<>(legacyFolders.keySet()), closure.getOutputProjects());
+		assertEquals(new ArrayList<>(legacyFolders.values()), closure.getOutputFolders());
+
+		// Not the order of the closure, otherwise the test would not check anything
+		assertNotEquals(closure.getProjects(), closure.getOutputProjects());
+	}
+}